@@ -0,0 +1,110 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+
+// Synthetic benchmark inputs. Every method references strings, methods, fields and types of other classes,
+// so that dex pools fill up in all overflowable sections at a realistic pace.
+
+class BenchmarkDexFiles {
+
+	public static final int API_LEVEL = 21;
+
+	private static final int METHODS_PER_CLASS = 16;
+	private static final int PACKAGE_COUNT = 32;
+	private static final int EXTERNAL_TYPE_COUNT = 1000;
+
+	public static DexFile createDexFile(int classCount) {
+		List<ClassDef> classes = new ArrayList<>(classCount);
+		int flags = AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue();
+		for (int c = 0; c < classCount; c++) {
+			String type = getType(c);
+			List<ImmutableMethod> methods = new ArrayList<>(METHODS_PER_CLASS);
+			for (int m = 0; m < METHODS_PER_CLASS; m++) {
+				List<ImmutableInstruction> instructions = new ArrayList<>();
+				instructions.add(new ImmutableInstruction21c(Opcode.CONST_STRING, 0,
+						new ImmutableStringReference("string_" + c + "_" + m)));
+				instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+						new ImmutableMethodReference(getType((c * 7 + m) % classCount), "m" + m, null, "V")));
+				instructions.add(new ImmutableInstruction21c(Opcode.SGET_OBJECT, 0,
+						new ImmutableFieldReference(getType((c * 13 + m) % classCount), "f", "Ljava/lang/String;")));
+				instructions.add(new ImmutableInstruction21c(Opcode.NEW_INSTANCE, 0,
+						new ImmutableTypeReference("Lexternal/T" + ((c + m) % EXTERNAL_TYPE_COUNT) + ";")));
+				instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+				ImmutableMethodImplementation implementation = new ImmutableMethodImplementation(1, instructions,
+						null, null);
+				methods.add(new ImmutableMethod(type, "m" + m, null, "V", flags, null, implementation));
+			}
+			List<ImmutableField> fields = Collections.singletonList(
+					new ImmutableField(type, "f", "Ljava/lang/String;", flags, null, null));
+			classes.add(new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null,
+					null, fields, methods));
+		}
+		return new ImmutableDexFile(Opcodes.forApi(API_LEVEL), classes);
+	}
+
+	private static String getType(int index) {
+		return "Lbenchmark/p" + (index % PACKAGE_COUNT) + "/C" + index + ";";
+	}
+
+	public static File createTempDirectory() throws IOException {
+		return Files.createTempDirectory("multidexlib2-benchmark").toFile();
+	}
+
+	public static void deleteRecursively(File file) throws IOException {
+		if (file == null || !file.exists()) return;
+		Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private BenchmarkDexFiles() {}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lanchon.multidexlib2.BasicDexFileNamer;
+import lanchon.multidexlib2.DexReadOptions;
+import lanchon.multidexlib2.DexWriteOptions;
+import lanchon.multidexlib2.MultiDexContainerBackedDexFile;
+import lanchon.multidexlib2.MultiDexIO;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Merges the entries of a loaded multi-dex container into a single DexFile, including the duplicate type check.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+	@Param({"EAGER", "NONE"})
+	public MultiDexContainerBackedDexFile.DuplicateTypeCheck duplicateTypeCheck;
+
+	@Param({"1", "4"})
+	public int threadCount;
+
+	@Param({"20000"})
+	public int classCount;
+
+	private File directory;
+	private MultiDexContainer<DexBackedDexFile> container;
+
+	@Setup
+	public void setup() throws IOException {
+		directory = BenchmarkDexFiles.createTempDirectory();
+		MultiDexIO.writeDexFile(true, directory, new BasicDexFileNamer(), BenchmarkDexFiles.createDexFile(classCount),
+				DexWriteOptions.builder().setThreadCount(0).build());
+		container = MultiDexIO.readMultiDexContainer(directory, new BasicDexFileNamer(),
+				DexReadOptions.builder().setThreadCount(0).build());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchmarkDexFiles.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public int merge() throws IOException {
+		return new MultiDexContainerBackedDexFile<>(container, duplicateTypeCheck, threadCount).getClasses().size();
+	}
+
+}
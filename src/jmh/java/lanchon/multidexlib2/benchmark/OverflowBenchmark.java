@@ -0,0 +1,84 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lanchon.multidexlib2.BasicDexFileNamer;
+import lanchon.multidexlib2.ClassPartitioner;
+import lanchon.multidexlib2.DexBufferPool;
+import lanchon.multidexlib2.DexWriteOptions;
+import lanchon.multidexlib2.MemoryDexDataStoreFactory;
+import lanchon.multidexlib2.MultiDexIO;
+import lanchon.multidexlib2.SequentialClassPartitioner;
+import org.jf.dexlib2.iface.DexFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Writes to memory using small dex pools, so that the cost of dex pool overflows dominates. The reactive
+// strategy discards and reinterns the overflowing class of each dex file using DexPool mark/reset, while the
+// predictive strategy plans all dex file boundaries upfront using class footprints.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OverflowBenchmark {
+
+	public enum Strategy {
+		REACTIVE,
+		PREDICTIVE
+	}
+
+	@Param({"REACTIVE", "PREDICTIVE"})
+	public Strategy strategy;
+
+	@Param({"1024", "4096"})
+	public int maxDexPoolSize;
+
+	@Param({"20000"})
+	public int classCount;
+
+	private DexFile dexFile;
+	private DexBufferPool bufferPool;
+
+	@Setup
+	public void setup() {
+		dexFile = BenchmarkDexFiles.createDexFile(classCount);
+		bufferPool = new DexBufferPool();
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		ClassPartitioner partitioner = strategy == Strategy.PREDICTIVE ? new SequentialClassPartitioner(true) : null;
+		MemoryDexDataStoreFactory dataStoreFactory = new MemoryDexDataStoreFactory(new BasicDexFileNamer(),
+				bufferPool);
+		try {
+			return MultiDexIO.writeMultiDex(true, dataStoreFactory, new BasicDexFileNamer(), dexFile,
+					DexWriteOptions.builder().setPartitioner(partitioner).setMaxDexPoolSize(maxDexPoolSize).build());
+		} finally {
+			dataStoreFactory.release();
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lanchon.multidexlib2.BasicDexFileNamer;
+import lanchon.multidexlib2.DexIO;
+import lanchon.multidexlib2.DexReadOptions;
+import lanchon.multidexlib2.DexWriteOptions;
+import lanchon.multidexlib2.MultiDexIO;
+import lanchon.multidexlib2.RawDexIO;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Reads a raw dex file, a multi-dex zip file and a multi-dex directory, and visits every class.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadBenchmark {
+
+	public enum Source {
+		RAW,
+		ZIP,
+		DIRECTORY
+	}
+
+	@Param({"RAW", "ZIP", "DIRECTORY"})
+	public Source source;
+
+	@Param({"1", "4"})
+	public int threadCount;
+
+	@Param({"20000"})
+	public int classCount;
+
+	private File directory;
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		DexFile dexFile = BenchmarkDexFiles.createDexFile(classCount);
+		directory = BenchmarkDexFiles.createTempDirectory();
+		switch (source) {
+			case RAW:
+				file = new File(directory, "classes.dex");
+				// A single dex file can only hold a fraction of the classes.
+				RawDexIO.writeRawDexFile(file, BenchmarkDexFiles.createDexFile(classCount / 8),
+						DexIO.DEFAULT_MAX_DEX_POOL_SIZE, null);
+				break;
+			case ZIP:
+				file = new File(directory, "classes.zip");
+				MultiDexIO.writeDexFile(true, file, new BasicDexFileNamer(), dexFile,
+						DexWriteOptions.builder().setThreadCount(0).build());
+				break;
+			case DIRECTORY:
+				file = new File(directory, "classes");
+				if (!file.mkdir()) throw new IOException("Cannot create directory: " + file);
+				MultiDexIO.writeDexFile(true, file, new BasicDexFileNamer(), dexFile,
+						DexWriteOptions.builder().setThreadCount(0).build());
+				break;
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchmarkDexFiles.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public void read(Blackhole blackhole) throws IOException {
+		DexFile dexFile = MultiDexIO.readDexFile(true, file, new BasicDexFileNamer(),
+				DexReadOptions.builder().setThreadCount(threadCount).build());
+		for (ClassDef classDef : dexFile.getClasses()) blackhole.consume(classDef.getType());
+	}
+
+}
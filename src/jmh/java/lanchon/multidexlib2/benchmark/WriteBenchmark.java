@@ -0,0 +1,73 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import lanchon.multidexlib2.BasicDexFileNamer;
+import lanchon.multidexlib2.DexWriteOptions;
+import lanchon.multidexlib2.MultiDexIO;
+import org.jf.dexlib2.iface.DexFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Writes a multi-dex directory across thread counts and dex pool sizes.
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+	@Param({"1", "2", "4"})
+	public int threadCount;
+
+	@Param({"16384", "65536"})
+	public int maxDexPoolSize;
+
+	@Param({"20000"})
+	public int classCount;
+
+	private DexFile dexFile;
+	private File directory;
+
+	@Setup
+	public void setup() throws IOException {
+		dexFile = BenchmarkDexFiles.createDexFile(classCount);
+		directory = BenchmarkDexFiles.createTempDirectory();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		BenchmarkDexFiles.deleteRecursively(directory);
+	}
+
+	@Benchmark
+	public int write() throws IOException {
+		return MultiDexIO.writeDexFile(true, directory, new BasicDexFileNamer(), dexFile,
+				DexWriteOptions.builder().setThreadCount(threadCount).setMaxDexPoolSize(maxDexPoolSize).build());
+	}
+
+}
@@ -10,10 +10,13 @@
 
 package lanchon.multidexlib2;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.iface.MultiDexContainer;
@@ -22,6 +25,7 @@ public abstract class AbstractMultiDexContainer<T extends DexFile> implements Mu
 
 	private Map<String, DexEntry<T>> entryMap;
 	private List<String> entryNames;
+	private volatile DexTypeIndex<T> typeIndex;
 
 	protected AbstractMultiDexContainer() {}
 
@@ -43,6 +47,37 @@ public abstract class AbstractMultiDexContainer<T extends DexFile> implements Mu
 		return entryMap.get(entryName);
 	}
 
+	// Returns an index of the types defined in this container, building it on first use.
+	public DexTypeIndex<T> getTypeIndex() throws IOException {
+		DexTypeIndex<T> index = typeIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = typeIndex;
+				if (index == null) {
+					index = DexTypeIndex.build(this, 1);
+					typeIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	protected static void loadEntries(Collection<? extends LazyDexEntry<?, ?>> entries, int threadCount)
+			throws IOException {
+		List<Callable<Void>> callables = new ArrayList<>(entries.size());
+		for (final LazyDexEntry<?, ?> entry : entries) {
+			//noinspection Convert2Lambda
+			callables.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					entry.load();
+					return null;
+				}
+			});
+		}
+		ThreadUtils.invokeAll(threadCount, callables);
+	}
+
 	protected DuplicateEntryNameException duplicateEntryName(String entryName) {
 		return new DuplicateEntryNameException(entryName);
 	}
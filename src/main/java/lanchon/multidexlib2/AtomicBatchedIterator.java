@@ -0,0 +1,72 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.UnmodifiableIterator;
+
+public class AtomicBatchedIterator<E> extends UnmodifiableIterator<E> implements PeekingIterator<E> {
+
+	private final List<? extends E> list;
+	private final AtomicInteger cursor;
+	private final int batchDivisor;
+	private final int maxBatchSize;
+	private int index;
+	private int end;
+
+	// All iterators sharing the same list and cursor partition the list among themselves without locking.
+	// Batches start at maxBatchSize and shrink towards the end of the list (guided self-scheduling) so
+	// that the last items get spread evenly among the iterators.
+	public AtomicBatchedIterator(List<? extends E> list, AtomicInteger cursor, int batchDivisor, int maxBatchSize) {
+		if (batchDivisor < 1) throw new IllegalArgumentException("batchDivisor");
+		if (maxBatchSize < 1) throw new IllegalArgumentException("maxBatchSize");
+		this.list = list;
+		this.cursor = cursor;
+		this.batchDivisor = batchDivisor;
+		this.maxBatchSize = maxBatchSize;
+		loadBatch();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return index < end;
+	}
+
+	@Override
+	public E peek() {
+		if (index >= end) throw new NoSuchElementException();
+		return list.get(index);
+	}
+
+	@Override
+	public E next() {
+		if (index >= end) throw new NoSuchElementException();
+		E item = list.get(index++);
+		if (index >= end) loadBatch();
+		return item;
+	}
+
+	private void loadBatch() {
+		int size = list.size();
+		int remaining = size - cursor.get();
+		if (remaining <= 0) return;
+		int batchSize = Math.max(1, Math.min(remaining / batchDivisor, maxBatchSize));
+		int start = cursor.getAndAdd(batchSize);
+		if (start >= size) return;
+		index = start;
+		end = Math.min(start + batchSize, size);
+	}
+
+}
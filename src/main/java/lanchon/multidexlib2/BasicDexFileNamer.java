@@ -57,4 +57,19 @@ public class BasicDexFileNamer implements DexFileNamer {
 		return getIndex(name) >= 0;
 	}
 
+	// Namers are compared by value so that equivalent namers share cached containers.
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || o.getClass() != getClass()) return false;
+		BasicDexFileNamer namer = (BasicDexFileNamer) o;
+		return prefix.equals(namer.prefix) && suffix.equals(namer.suffix);
+	}
+
+	@Override
+	public int hashCode() {
+		return prefix.hashCode() * 31 + suffix.hashCode();
+	}
+
 }
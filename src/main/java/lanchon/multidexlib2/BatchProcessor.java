@@ -0,0 +1,239 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jf.dexlib2.iface.DexFile;
+
+// Runs batch jobs on a shared pool of worker threads. Each job reads its input in one task and then splits its
+// write into one task per pool thread, all taking class batches from the job. Workers that start after the classes
+// of a job are exhausted finish immediately, so the threads move on to the next jobs in the pool queue as soon as
+// a job runs out of work. The number of jobs that hold parsed inputs at the same time is bounded.
+// Jobs never plan their dex files, even if their partitioner does: planned dex files take their names in order,
+// which makes the tasks of a job wait for each other. Instead, the partitions only determine the class order.
+// No task waits for another, so the pool cannot deadlock: the last task of a job to finish completes the job.
+// If the executor rejects a task, its job and all jobs not yet started fail with the rejection.
+
+class BatchProcessor {
+
+	private final ExecutorService executor;
+	private final int threadCount;
+	private final int maxActiveJobs;
+	private final List<DexBatchJob> jobs;
+	private final DexIO.Logger logger;
+	private final DexBatchResult[] results;
+	private int nextJob;
+	private int activeJobs;
+	private int completedJobs;
+	private RejectedExecutionException rejection;
+
+	public static List<DexBatchResult> run(int threadCount, int maxActiveJobs, List<DexBatchJob> jobs,
+			DexIO.Logger logger) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			return run(executor, threadCount, maxActiveJobs, jobs, logger);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public static List<DexBatchResult> run(ExecutorService executor, int threadCount, int maxActiveJobs,
+			List<DexBatchJob> jobs, DexIO.Logger logger) throws IOException {
+		if (executor == null) throw new NullPointerException("executor");
+		if (maxActiveJobs < 1) throw new IllegalArgumentException("maxActiveJobs");
+		return new BatchProcessor(executor, threadCount, maxActiveJobs, jobs, logger).run();
+	}
+
+	private BatchProcessor(ExecutorService executor, int threadCount, int maxActiveJobs, List<DexBatchJob> jobs,
+			DexIO.Logger logger) {
+		this.executor = executor;
+		this.threadCount = threadCount;
+		this.maxActiveJobs = maxActiveJobs;
+		this.jobs = jobs;
+		this.logger = logger;
+		results = new DexBatchResult[jobs.size()];
+	}
+
+	private synchronized List<DexBatchResult> run() throws IOException {
+		startJobs();
+		try {
+			while (completedJobs < results.length) wait();
+		} catch (InterruptedException e) {
+			throw ThreadUtils.interrupted(e);
+		}
+		return Arrays.asList(results);
+	}
+
+	private synchronized void startJobs() {
+		while (nextJob < results.length && (activeJobs < maxActiveJobs || rejection != null)) {
+			int index = nextJob++;
+			if (rejection == null) {
+				final JobRun run = new JobRun(index, jobs.get(index));
+				try {
+					//noinspection Convert2Lambda
+					submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							run.start();
+							return null;
+						}
+					});
+					activeJobs++;
+					continue;
+				} catch (RejectedExecutionException e) {
+					rejection = e;
+				}
+			}
+			results[index] = new DexBatchResult(jobs.get(index), -1, 0, rejection, 0);
+			completedJobs++;
+		}
+		notifyAll();
+	}
+
+	private synchronized void finishJob(int index, DexBatchResult result) {
+		results[index] = result;
+		activeJobs--;
+		completedJobs++;
+		startJobs();
+	}
+
+	// Jobs that are not yet started fail once the executor rejects a task.
+	private synchronized void reject(RejectedExecutionException e) {
+		if (rejection == null) rejection = e;
+	}
+
+	private void submit(Callable<Void> task) {
+		executor.submit(task);
+	}
+
+	private class JobRun {
+
+		private final int index;
+		private final DexBatchJob job;
+		private final long startTime = System.nanoTime();
+		private final AtomicInteger pendingTasks = new AtomicInteger();
+		private volatile Throwable failure;
+		private int classCount = -1;
+		private int dexFileCount;
+		private DexFileNameIterator nameIterator;
+		private DexIO.WriteContext context;
+		private ZipFileDexDataStoreFactory zipFactory;
+
+		public JobRun(int index, DexBatchJob job) {
+			this.index = index;
+			this.job = job;
+		}
+
+		// Reads the input and queues the write tasks.
+		public void start() {
+			List<Callable<Void>> tasks;
+			try {
+				DexFile dexFile = MultiDexIO.readDexFile(job.isMultiDex(), job.getInputFile(), job.getInputNamer(),
+						DexReadOptions.builder().setOpcodes(job.getOpcodes()).setLogger(logger).build());
+				classCount = dexFile.getClasses().size();
+				File outputFile = job.getOutputFile();
+				DexWriteOptions options = DexWriteOptions.builder()
+						.setMinMainDexClassCount(job.getMinMainDexClassCount())
+						.setMinimalMainDex(job.isMinimalMainDex()).setMaxDexPoolSize(job.getMaxDexPoolSize())
+						.setExecutor(executor).setLogger(logger).build();
+				if (!job.isMultiDex()) {
+					// Single dex writes cannot be split.
+					dexFileCount = MultiDexIO.writeDexFile(false, outputFile, job.getOutputNamer(), dexFile, options);
+					finish();
+					return;
+				}
+				DexDataStoreFactory dataStoreFactory;
+				if (outputFile.isDirectory()) {
+					MultiDexIO.purgeMultiDexDirectory(true, outputFile, job.getOutputNamer());
+					DexManifest.delete(outputFile);
+					dataStoreFactory = new DirectoryDexDataStoreFactory(outputFile);
+				} else {
+					zipFactory = new ZipFileDexDataStoreFactory(outputFile, job.getOutputNamer(),
+							job.isCompressed());
+					dataStoreFactory = zipFactory;
+				}
+				nameIterator = new DexFileNameIterator(job.getOutputNamer());
+				context = new DexIO.WriteContext(dataStoreFactory, nameIterator, dexFile.getOpcodes(), threadCount,
+						options, outputFile);
+				tasks = DexIO.newNonBlockingWriterTasks(threadCount, context, dexFile, job.getPartitioner(),
+						options.getMinMainDexClassCount(), options.isMinimalMainDex());
+			} catch (Throwable e) {
+				setFailure(e);
+				finish();
+				return;
+			}
+			pendingTasks.set(tasks.size());
+			for (int i = 0; i < tasks.size(); i++) {
+				final Callable<Void> task = tasks.get(i);
+				try {
+					//noinspection Convert2Lambda
+					submit(new Callable<Void>() {
+						@Override
+						public Void call() {
+							try {
+								// Skip the remaining work of a failed job.
+								if (failure == null) task.call();
+							} catch (Throwable e) {
+								setFailure(e);
+							} finally {
+								if (pendingTasks.decrementAndGet() == 0) finish();
+							}
+							return null;
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					// The tasks that were not submitted count as done.
+					setFailure(e);
+					reject(e);
+					if (pendingTasks.addAndGet(i - tasks.size()) == 0) finish();
+					return;
+				}
+			}
+		}
+
+		// Keeps the first failure.
+		private synchronized void setFailure(Throwable e) {
+			if (failure == null) failure = e;
+		}
+
+		private void finish() {
+			Throwable failure = this.failure;
+			try {
+				if (context != null) context.finish(failure == null);
+			} catch (Throwable e) {
+				failure = e;
+			}
+			try {
+				// Failed jobs leave no partial zip file behind.
+				if (zipFactory != null) {
+					if (failure == null) zipFactory.close();
+					else zipFactory.discard();
+				}
+			} catch (Throwable e) {
+				if (failure == null) failure = e;
+			}
+			if (nameIterator != null) dexFileCount = nameIterator.getCount();
+			if (failure != null) dexFileCount = 0;
+			finishJob(index, new DexBatchResult(job, classCount, dexFileCount, failure, System.nanoTime() - startTime));
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+// Minimizes the dex file count using first-fit decreasing bin packing over the class reference footprints.
+
+public class BinPackingClassPartitioner extends FootprintClassPartitioner {
+
+	private static final Comparator<Item> DECREASING_SIZE_ORDER = new Comparator<Item>() {
+		@Override
+		public int compare(Item l, Item r) {
+			int c = Integer.compare(r.footprint.getSize(), l.footprint.getSize());
+			return c != 0 ? c : Integer.compare(l.index, r.index);
+		}
+	};
+
+	@Override
+	void pack(List<Item> items, List<Bin> bins, int firstOpenBin, int maxDexPoolSize) {
+		List<Item> sortedItems = new ArrayList<>(items);
+		Collections.sort(sortedItems, DECREASING_SIZE_ORDER);
+		for (Item item : sortedItems) {
+			Bin target = null;
+			for (int i = firstOpenBin; i < bins.size(); i++) {
+				Bin bin = bins.get(i);
+				if (bin.fits(item.footprint, maxDexPoolSize)) {
+					target = bin;
+					break;
+				}
+			}
+			if (target == null) target = newBin(bins);
+			target.add(item);
+		}
+	}
+
+}
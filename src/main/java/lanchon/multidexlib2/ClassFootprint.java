@@ -0,0 +1,265 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.Collection;
+import java.util.Set;
+
+import org.jf.dexlib2.DebugItemType;
+import org.jf.dexlib2.ReferenceType;
+import org.jf.dexlib2.ValueType;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.AnnotationElement;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.MethodParameter;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.debug.DebugItem;
+import org.jf.dexlib2.iface.debug.SetSourceFile;
+import org.jf.dexlib2.iface.debug.StartLocal;
+import org.jf.dexlib2.iface.instruction.DualReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.reference.CallSiteReference;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodHandleReference;
+import org.jf.dexlib2.iface.reference.MethodProtoReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.iface.value.AnnotationEncodedValue;
+import org.jf.dexlib2.iface.value.ArrayEncodedValue;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.iface.value.EnumEncodedValue;
+import org.jf.dexlib2.iface.value.FieldEncodedValue;
+import org.jf.dexlib2.iface.value.MethodEncodedValue;
+import org.jf.dexlib2.iface.value.MethodHandleEncodedValue;
+import org.jf.dexlib2.iface.value.MethodTypeEncodedValue;
+import org.jf.dexlib2.iface.value.StringEncodedValue;
+import org.jf.dexlib2.iface.value.TypeEncodedValue;
+import org.jf.dexlib2.util.MethodUtil;
+import org.jf.dexlib2.util.ReferenceUtil;
+
+// The items that interning a class into a DexPool adds to each of the pool's index sections.
+
+public class ClassFootprint extends Footprint {
+
+	private final FootprintAnalyzer analyzer;
+
+	ClassFootprint(FootprintAnalyzer analyzer, ClassDef classDef) {
+		this.analyzer = analyzer;
+		addType(classDef.getType());
+		addNullableType(classDef.getSuperclass());
+		addTypes(classDef.getInterfaces());
+		addNullableString(classDef.getSourceFile());
+		for (Field field : classDef.getFields()) {
+			addField(field);
+			EncodedValue initialValue = field.getInitialValue();
+			if (initialValue != null) addEncodedValue(initialValue);
+			addAnnotations(field.getAnnotations());
+		}
+		for (Method method : classDef.getMethods()) {
+			addMethod(method);
+			for (MethodParameter parameter : method.getParameters()) {
+				addNullableString(parameter.getName());
+				addAnnotations(parameter.getAnnotations());
+			}
+			MethodImplementation implementation = method.getImplementation();
+			if (implementation != null) addImplementation(implementation);
+			addAnnotations(method.getAnnotations());
+		}
+		addAnnotations(classDef.getAnnotations());
+	}
+
+	private boolean add(Section section, Object item) {
+		return sections[section.ordinal()].add(analyzer.getId(section, item));
+	}
+
+	private void addString(String string) {
+		add(Section.STRING, string);
+	}
+
+	private void addNullableString(String string) {
+		if (string != null) addString(string);
+	}
+
+	private void addType(String type) {
+		if (add(Section.TYPE, type)) addString(type);
+	}
+
+	private void addNullableType(String type) {
+		if (type != null) addType(type);
+	}
+
+	private void addTypes(Collection<? extends CharSequence> types) {
+		for (CharSequence type : types) addType(type.toString());
+	}
+
+	private void addProto(Collection<? extends CharSequence> parameterTypes, String returnType) {
+		StringBuilder sb = new StringBuilder();
+		sb.append('(');
+		for (CharSequence parameterType : parameterTypes) sb.append(parameterType);
+		sb.append(')').append(returnType);
+		if (add(Section.PROTO, sb.toString())) {
+			addString(MethodUtil.getShorty(parameterTypes, returnType));
+			addType(returnType);
+			addTypes(parameterTypes);
+		}
+	}
+
+	private void addProto(MethodProtoReference proto) {
+		addProto(proto.getParameterTypes(), proto.getReturnType());
+	}
+
+	private void addField(FieldReference field) {
+		if (add(Section.FIELD, ReferenceUtil.getFieldDescriptor(field))) {
+			addType(field.getDefiningClass());
+			addString(field.getName());
+			addType(field.getType());
+		}
+	}
+
+	private void addMethod(MethodReference method) {
+		if (add(Section.METHOD, ReferenceUtil.getMethodDescriptor(method))) {
+			addType(method.getDefiningClass());
+			addProto(method.getParameterTypes(), method.getReturnType());
+			addString(method.getName());
+		}
+	}
+
+	private void addCallSite(CallSiteReference callSite) {
+		if (add(Section.CALL_SITE, callSite)) {
+			addMethodHandle(callSite.getMethodHandle());
+			addString(callSite.getMethodName());
+			addProto(callSite.getMethodProto());
+			for (EncodedValue argument : callSite.getExtraArguments()) addEncodedValue(argument);
+		}
+	}
+
+	private void addMethodHandle(MethodHandleReference methodHandle) {
+		if (add(Section.METHOD_HANDLE, methodHandle)) {
+			Reference member = methodHandle.getMemberReference();
+			if (member instanceof FieldReference) addField((FieldReference) member);
+			else if (member instanceof MethodReference) addMethod((MethodReference) member);
+		}
+	}
+
+	private void addReference(int referenceType, Reference reference) {
+		switch (referenceType) {
+			case ReferenceType.STRING:
+				addString(((StringReference) reference).getString());
+				break;
+			case ReferenceType.TYPE:
+				addType(((TypeReference) reference).getType());
+				break;
+			case ReferenceType.FIELD:
+				addField((FieldReference) reference);
+				break;
+			case ReferenceType.METHOD:
+				addMethod((MethodReference) reference);
+				break;
+			case ReferenceType.METHOD_PROTO:
+				addProto((MethodProtoReference) reference);
+				break;
+			case ReferenceType.CALL_SITE:
+				addCallSite((CallSiteReference) reference);
+				break;
+			case ReferenceType.METHOD_HANDLE:
+				addMethodHandle((MethodHandleReference) reference);
+				break;
+		}
+	}
+
+	private void addImplementation(MethodImplementation implementation) {
+		for (Instruction instruction : implementation.getInstructions()) {
+			if (instruction instanceof ReferenceInstruction) {
+				Reference reference = ((ReferenceInstruction) instruction).getReference();
+				addReference(instruction.getOpcode().referenceType, reference);
+			}
+			if (instruction instanceof DualReferenceInstruction) {
+				// The proto of invoke-polymorphic.
+				DualReferenceInstruction dualReferenceInstruction = (DualReferenceInstruction) instruction;
+				addReference(dualReferenceInstruction.getReferenceType2(), dualReferenceInstruction.getReference2());
+			}
+		}
+		for (TryBlock<? extends ExceptionHandler> tryBlock : implementation.getTryBlocks()) {
+			for (ExceptionHandler handler : tryBlock.getExceptionHandlers()) {
+				addNullableType(handler.getExceptionType());
+			}
+		}
+		for (DebugItem debugItem : implementation.getDebugItems()) {
+			switch (debugItem.getDebugItemType()) {
+				case DebugItemType.START_LOCAL:
+					StartLocal startLocal = (StartLocal) debugItem;
+					addNullableString(startLocal.getName());
+					addNullableType(startLocal.getType());
+					addNullableString(startLocal.getSignature());
+					break;
+				case DebugItemType.SET_SOURCE_FILE:
+					addNullableString(((SetSourceFile) debugItem).getSourceFile());
+					break;
+			}
+		}
+	}
+
+	private void addAnnotations(Set<? extends Annotation> annotations) {
+		for (Annotation annotation : annotations) {
+			addType(annotation.getType());
+			addAnnotationElements(annotation.getElements());
+		}
+	}
+
+	private void addAnnotationElements(Set<? extends AnnotationElement> elements) {
+		for (AnnotationElement element : elements) {
+			addString(element.getName());
+			addEncodedValue(element.getValue());
+		}
+	}
+
+	private void addEncodedValue(EncodedValue value) {
+		switch (value.getValueType()) {
+			case ValueType.ANNOTATION:
+				AnnotationEncodedValue annotationValue = (AnnotationEncodedValue) value;
+				addType(annotationValue.getType());
+				addAnnotationElements(annotationValue.getElements());
+				break;
+			case ValueType.ARRAY:
+				for (EncodedValue element : ((ArrayEncodedValue) value).getValue()) addEncodedValue(element);
+				break;
+			case ValueType.STRING:
+				addString(((StringEncodedValue) value).getValue());
+				break;
+			case ValueType.TYPE:
+				addType(((TypeEncodedValue) value).getValue());
+				break;
+			case ValueType.ENUM:
+				addField(((EnumEncodedValue) value).getValue());
+				break;
+			case ValueType.FIELD:
+				addField(((FieldEncodedValue) value).getValue());
+				break;
+			case ValueType.METHOD:
+				addMethod(((MethodEncodedValue) value).getValue());
+				break;
+			case ValueType.METHOD_HANDLE:
+				addMethodHandle(((MethodHandleEncodedValue) value).getValue());
+				break;
+			case ValueType.METHOD_TYPE:
+				addProto(((MethodTypeEncodedValue) value).getValue());
+				break;
+		}
+	}
+
+}
@@ -0,0 +1,393 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.jf.dexlib2.DebugItemType;
+import org.jf.dexlib2.ReferenceType;
+import org.jf.dexlib2.ValueType;
+import org.jf.dexlib2.iface.Annotation;
+import org.jf.dexlib2.iface.AnnotationElement;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.ExceptionHandler;
+import org.jf.dexlib2.iface.Field;
+import org.jf.dexlib2.iface.Method;
+import org.jf.dexlib2.iface.MethodImplementation;
+import org.jf.dexlib2.iface.MethodParameter;
+import org.jf.dexlib2.iface.TryBlock;
+import org.jf.dexlib2.iface.debug.DebugItem;
+import org.jf.dexlib2.iface.debug.LineNumber;
+import org.jf.dexlib2.iface.debug.LocalInfo;
+import org.jf.dexlib2.iface.debug.SetSourceFile;
+import org.jf.dexlib2.iface.instruction.DualReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.FieldOffsetInstruction;
+import org.jf.dexlib2.iface.instruction.FiveRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.InlineIndexInstruction;
+import org.jf.dexlib2.iface.instruction.Instruction;
+import org.jf.dexlib2.iface.instruction.OffsetInstruction;
+import org.jf.dexlib2.iface.instruction.OneRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.ReferenceInstruction;
+import org.jf.dexlib2.iface.instruction.RegisterRangeInstruction;
+import org.jf.dexlib2.iface.instruction.SwitchElement;
+import org.jf.dexlib2.iface.instruction.SwitchPayload;
+import org.jf.dexlib2.iface.instruction.ThreeRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.TwoRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.VariableRegisterInstruction;
+import org.jf.dexlib2.iface.instruction.VerificationErrorInstruction;
+import org.jf.dexlib2.iface.instruction.VtableIndexInstruction;
+import org.jf.dexlib2.iface.instruction.WideLiteralInstruction;
+import org.jf.dexlib2.iface.instruction.formats.ArrayPayload;
+import org.jf.dexlib2.iface.reference.CallSiteReference;
+import org.jf.dexlib2.iface.reference.FieldReference;
+import org.jf.dexlib2.iface.reference.MethodHandleReference;
+import org.jf.dexlib2.iface.reference.MethodProtoReference;
+import org.jf.dexlib2.iface.reference.MethodReference;
+import org.jf.dexlib2.iface.reference.Reference;
+import org.jf.dexlib2.iface.reference.StringReference;
+import org.jf.dexlib2.iface.reference.TypeReference;
+import org.jf.dexlib2.iface.value.AnnotationEncodedValue;
+import org.jf.dexlib2.iface.value.ArrayEncodedValue;
+import org.jf.dexlib2.iface.value.BooleanEncodedValue;
+import org.jf.dexlib2.iface.value.ByteEncodedValue;
+import org.jf.dexlib2.iface.value.CharEncodedValue;
+import org.jf.dexlib2.iface.value.DoubleEncodedValue;
+import org.jf.dexlib2.iface.value.EncodedValue;
+import org.jf.dexlib2.iface.value.EnumEncodedValue;
+import org.jf.dexlib2.iface.value.FieldEncodedValue;
+import org.jf.dexlib2.iface.value.FloatEncodedValue;
+import org.jf.dexlib2.iface.value.IntEncodedValue;
+import org.jf.dexlib2.iface.value.LongEncodedValue;
+import org.jf.dexlib2.iface.value.MethodEncodedValue;
+import org.jf.dexlib2.iface.value.MethodHandleEncodedValue;
+import org.jf.dexlib2.iface.value.MethodTypeEncodedValue;
+import org.jf.dexlib2.iface.value.ShortEncodedValue;
+import org.jf.dexlib2.iface.value.StringEncodedValue;
+import org.jf.dexlib2.iface.value.TypeEncodedValue;
+
+// Computes a content hash of a class that is stable across runs and independent of the dex file it came from.
+
+class ClassHasher {
+
+	public static String hash(ClassDef classDef) {
+		ClassHasher hasher = new ClassHasher();
+		hasher.putClass(classDef);
+		return hasher.hasher.hash().toString();
+	}
+
+	private final Hasher hasher = Hashing.murmur3_128().newHasher();
+
+	private ClassHasher() {}
+
+	private void putClass(ClassDef classDef) {
+		putString(classDef.getType());
+		hasher.putInt(classDef.getAccessFlags());
+		putString(classDef.getSuperclass());
+		putStrings(classDef.getInterfaces());
+		putString(classDef.getSourceFile());
+		putAnnotations(classDef.getAnnotations());
+		for (Field field : classDef.getFields()) {
+			putString(field.getName());
+			putString(field.getType());
+			hasher.putInt(field.getAccessFlags());
+			EncodedValue initialValue = field.getInitialValue();
+			hasher.putBoolean(initialValue != null);
+			if (initialValue != null) putEncodedValue(initialValue);
+			putAnnotations(field.getAnnotations());
+		}
+		// Members never have null names, so a null string terminates each member list.
+		putString(null);
+		for (Method method : classDef.getMethods()) {
+			putString(method.getName());
+			List<? extends MethodParameter> parameters = method.getParameters();
+			hasher.putInt(parameters.size());
+			for (MethodParameter parameter : parameters) {
+				putString(parameter.getType());
+				putString(parameter.getName());
+				putAnnotations(parameter.getAnnotations());
+			}
+			putString(method.getReturnType());
+			hasher.putInt(method.getAccessFlags());
+			putAnnotations(method.getAnnotations());
+			MethodImplementation implementation = method.getImplementation();
+			hasher.putBoolean(implementation != null);
+			if (implementation != null) putImplementation(implementation);
+		}
+		putString(null);
+	}
+
+	private void putString(CharSequence string) {
+		if (string == null) {
+			hasher.putInt(-1);
+		} else {
+			hasher.putInt(string.length());
+			hasher.putUnencodedChars(string);
+		}
+	}
+
+	private void putStrings(Collection<? extends CharSequence> strings) {
+		hasher.putInt(strings.size());
+		for (CharSequence string : strings) putString(string);
+	}
+
+	private void putProto(Collection<? extends CharSequence> parameterTypes, String returnType) {
+		putStrings(parameterTypes);
+		putString(returnType);
+	}
+
+	private void putField(FieldReference field) {
+		putString(field.getDefiningClass());
+		putString(field.getName());
+		putString(field.getType());
+	}
+
+	private void putMethod(MethodReference method) {
+		putString(method.getDefiningClass());
+		putString(method.getName());
+		putProto(method.getParameterTypes(), method.getReturnType());
+	}
+
+	private void putMethodHandle(MethodHandleReference methodHandle) {
+		hasher.putInt(methodHandle.getMethodHandleType());
+		Reference member = methodHandle.getMemberReference();
+		if (member instanceof FieldReference) putField((FieldReference) member);
+		else putMethod((MethodReference) member);
+	}
+
+	private void putReference(int referenceType, Reference reference) {
+		hasher.putInt(referenceType);
+		switch (referenceType) {
+			case ReferenceType.STRING:
+				putString(((StringReference) reference).getString());
+				break;
+			case ReferenceType.TYPE:
+				putString(((TypeReference) reference).getType());
+				break;
+			case ReferenceType.FIELD:
+				putField((FieldReference) reference);
+				break;
+			case ReferenceType.METHOD:
+				putMethod((MethodReference) reference);
+				break;
+			case ReferenceType.METHOD_PROTO:
+				MethodProtoReference proto = (MethodProtoReference) reference;
+				putProto(proto.getParameterTypes(), proto.getReturnType());
+				break;
+			case ReferenceType.CALL_SITE:
+				CallSiteReference callSite = (CallSiteReference) reference;
+				putString(callSite.getName());
+				putMethodHandle(callSite.getMethodHandle());
+				putString(callSite.getMethodName());
+				putProto(callSite.getMethodProto().getParameterTypes(), callSite.getMethodProto().getReturnType());
+				putEncodedValues(callSite.getExtraArguments());
+				break;
+			case ReferenceType.METHOD_HANDLE:
+				putMethodHandle((MethodHandleReference) reference);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown reference type: " + referenceType);
+		}
+	}
+
+	private void putImplementation(MethodImplementation implementation) {
+		hasher.putInt(implementation.getRegisterCount());
+		for (Instruction instruction : implementation.getInstructions()) putInstruction(instruction);
+		putString(null);
+		List<? extends TryBlock<? extends ExceptionHandler>> tryBlocks = implementation.getTryBlocks();
+		hasher.putInt(tryBlocks.size());
+		for (TryBlock<? extends ExceptionHandler> tryBlock : tryBlocks) {
+			hasher.putInt(tryBlock.getStartCodeAddress());
+			hasher.putInt(tryBlock.getCodeUnitCount());
+			List<? extends ExceptionHandler> handlers = tryBlock.getExceptionHandlers();
+			hasher.putInt(handlers.size());
+			for (ExceptionHandler handler : handlers) {
+				putString(handler.getExceptionType());
+				hasher.putInt(handler.getHandlerCodeAddress());
+			}
+		}
+		for (DebugItem debugItem : implementation.getDebugItems()) {
+			int type = debugItem.getDebugItemType();
+			hasher.putInt(type);
+			hasher.putInt(debugItem.getCodeAddress());
+			switch (type) {
+				case DebugItemType.START_LOCAL:
+				case DebugItemType.END_LOCAL:
+				case DebugItemType.RESTART_LOCAL:
+					LocalInfo localInfo = (LocalInfo) debugItem;
+					putString(localInfo.getName());
+					putString(localInfo.getType());
+					putString(localInfo.getSignature());
+					break;
+				case DebugItemType.LINE_NUMBER:
+					hasher.putInt(((LineNumber) debugItem).getLineNumber());
+					break;
+				case DebugItemType.SET_SOURCE_FILE:
+					putString(((SetSourceFile) debugItem).getSourceFile());
+					break;
+			}
+		}
+		// Debug item types are non-negative, so this terminates the debug item list.
+		hasher.putInt(-1);
+	}
+
+	private void putInstruction(Instruction instruction) {
+		putString(instruction.getOpcode().name);
+		if (instruction instanceof OneRegisterInstruction) {
+			hasher.putInt(((OneRegisterInstruction) instruction).getRegisterA());
+		}
+		if (instruction instanceof TwoRegisterInstruction) {
+			hasher.putInt(((TwoRegisterInstruction) instruction).getRegisterB());
+		}
+		if (instruction instanceof ThreeRegisterInstruction) {
+			hasher.putInt(((ThreeRegisterInstruction) instruction).getRegisterC());
+		}
+		if (instruction instanceof VariableRegisterInstruction) {
+			hasher.putInt(((VariableRegisterInstruction) instruction).getRegisterCount());
+		}
+		if (instruction instanceof FiveRegisterInstruction) {
+			FiveRegisterInstruction i = (FiveRegisterInstruction) instruction;
+			hasher.putInt(i.getRegisterC()).putInt(i.getRegisterD()).putInt(i.getRegisterE())
+					.putInt(i.getRegisterF()).putInt(i.getRegisterG());
+		}
+		if (instruction instanceof RegisterRangeInstruction) {
+			hasher.putInt(((RegisterRangeInstruction) instruction).getStartRegister());
+		}
+		if (instruction instanceof WideLiteralInstruction) {
+			hasher.putLong(((WideLiteralInstruction) instruction).getWideLiteral());
+		}
+		if (instruction instanceof OffsetInstruction) {
+			hasher.putInt(((OffsetInstruction) instruction).getCodeOffset());
+		}
+		if (instruction instanceof ReferenceInstruction) {
+			ReferenceInstruction i = (ReferenceInstruction) instruction;
+			putReference(i.getReferenceType(), i.getReference());
+		}
+		if (instruction instanceof DualReferenceInstruction) {
+			DualReferenceInstruction i = (DualReferenceInstruction) instruction;
+			putReference(i.getReferenceType2(), i.getReference2());
+		}
+		if (instruction instanceof VerificationErrorInstruction) {
+			hasher.putInt(((VerificationErrorInstruction) instruction).getVerificationError());
+		}
+		if (instruction instanceof FieldOffsetInstruction) {
+			hasher.putInt(((FieldOffsetInstruction) instruction).getFieldOffset());
+		}
+		if (instruction instanceof InlineIndexInstruction) {
+			hasher.putInt(((InlineIndexInstruction) instruction).getInlineIndex());
+		}
+		if (instruction instanceof VtableIndexInstruction) {
+			hasher.putInt(((VtableIndexInstruction) instruction).getVtableIndex());
+		}
+		if (instruction instanceof SwitchPayload) {
+			List<? extends SwitchElement> elements = ((SwitchPayload) instruction).getSwitchElements();
+			hasher.putInt(elements.size());
+			for (SwitchElement element : elements) hasher.putInt(element.getKey()).putInt(element.getOffset());
+		}
+		if (instruction instanceof ArrayPayload) {
+			ArrayPayload payload = (ArrayPayload) instruction;
+			List<Number> elements = payload.getArrayElements();
+			hasher.putInt(payload.getElementWidth());
+			hasher.putInt(elements.size());
+			for (Number element : elements) hasher.putLong(element.longValue());
+		}
+	}
+
+	private void putAnnotations(Collection<? extends Annotation> annotations) {
+		hasher.putInt(annotations.size());
+		for (Annotation annotation : annotations) {
+			hasher.putInt(annotation.getVisibility());
+			putString(annotation.getType());
+			putAnnotationElements(annotation.getElements());
+		}
+	}
+
+	private void putAnnotationElements(Collection<? extends AnnotationElement> elements) {
+		hasher.putInt(elements.size());
+		for (AnnotationElement element : elements) {
+			putString(element.getName());
+			putEncodedValue(element.getValue());
+		}
+	}
+
+	private void putEncodedValues(Collection<? extends EncodedValue> values) {
+		hasher.putInt(values.size());
+		for (EncodedValue value : values) putEncodedValue(value);
+	}
+
+	private void putEncodedValue(EncodedValue value) {
+		int type = value.getValueType();
+		hasher.putInt(type);
+		switch (type) {
+			case ValueType.BYTE:
+				hasher.putByte(((ByteEncodedValue) value).getValue());
+				break;
+			case ValueType.SHORT:
+				hasher.putShort(((ShortEncodedValue) value).getValue());
+				break;
+			case ValueType.CHAR:
+				hasher.putChar(((CharEncodedValue) value).getValue());
+				break;
+			case ValueType.INT:
+				hasher.putInt(((IntEncodedValue) value).getValue());
+				break;
+			case ValueType.LONG:
+				hasher.putLong(((LongEncodedValue) value).getValue());
+				break;
+			case ValueType.FLOAT:
+				hasher.putInt(Float.floatToRawIntBits(((FloatEncodedValue) value).getValue()));
+				break;
+			case ValueType.DOUBLE:
+				hasher.putLong(Double.doubleToRawLongBits(((DoubleEncodedValue) value).getValue()));
+				break;
+			case ValueType.BOOLEAN:
+				hasher.putBoolean(((BooleanEncodedValue) value).getValue());
+				break;
+			case ValueType.NULL:
+				break;
+			case ValueType.STRING:
+				putString(((StringEncodedValue) value).getValue());
+				break;
+			case ValueType.TYPE:
+				putString(((TypeEncodedValue) value).getValue());
+				break;
+			case ValueType.FIELD:
+				putField(((FieldEncodedValue) value).getValue());
+				break;
+			case ValueType.ENUM:
+				putField(((EnumEncodedValue) value).getValue());
+				break;
+			case ValueType.METHOD:
+				putMethod(((MethodEncodedValue) value).getValue());
+				break;
+			case ValueType.METHOD_TYPE:
+				MethodProtoReference proto = ((MethodTypeEncodedValue) value).getValue();
+				putProto(proto.getParameterTypes(), proto.getReturnType());
+				break;
+			case ValueType.METHOD_HANDLE:
+				putMethodHandle(((MethodHandleEncodedValue) value).getValue());
+				break;
+			case ValueType.ARRAY:
+				putEncodedValues(((ArrayEncodedValue) value).getValue());
+				break;
+			case ValueType.ANNOTATION:
+				AnnotationEncodedValue annotationValue = (AnnotationEncodedValue) value;
+				putString(annotationValue.getType());
+				putAnnotationElements(annotationValue.getElements());
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown encoded value type: " + type);
+		}
+	}
+
+}
@@ -0,0 +1,26 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.jf.dexlib2.iface.ClassDef;
+
+public interface ClassPartitioner {
+
+	// Splits the classes into groups that will be written to separate dex files, in order. The first group
+	// becomes the main dex and must begin with the first minMainDexClassCount classes, in order. A group
+	// that overflows the dex pool spills its remaining classes into additional dex files.
+	List<List<ClassDef>> partition(List<? extends ClassDef> classes, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize) throws IOException;
+
+}
@@ -0,0 +1,25 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+
+import org.jf.dexlib2.iface.ClassDef;
+
+// Transforms the classes streamed from a source container on their way to the writer.
+// Implementations are invoked from a single thread.
+
+public interface ClassTransformer {
+
+	// Returns the class to write, or null to drop it.
+	ClassDef transform(ClassDef classDef) throws IOException;
+
+}
@@ -0,0 +1,64 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+// Identifies the format of a container file from its leading magic bytes, without opening it as a zip file.
+
+enum ContainerFormat {
+
+	DEX,
+	ZIP,
+	UNKNOWN;
+
+	private static final int MAGIC_SIZE = 4;
+	private static final String[] ZIP_EXTENSIONS = { ".zip", ".apk", ".jar" };
+
+	public static ContainerFormat detect(File file) throws IOException {
+		byte[] magic = new byte[MAGIC_SIZE];
+		int size = 0;
+		try (InputStream inputStream = new FileInputStream(file)) {
+			while (size < MAGIC_SIZE) {
+				int count = inputStream.read(magic, size, MAGIC_SIZE - size);
+				if (count < 0) break;
+				size += count;
+			}
+		}
+		if (size < MAGIC_SIZE) return UNKNOWN;
+		if (magic[0] == 'd' && magic[1] == 'e' && magic[2] == 'x' && magic[3] == '\n') return DEX;
+		if (magic[0] == 'P' && magic[1] == 'K') {
+			// Local file header, or end of central directory of an empty zip file.
+			if ((magic[2] == 3 && magic[3] == 4) || (magic[2] == 5 && magic[3] == 6)) return ZIP;
+		}
+		return UNKNOWN;
+	}
+
+	// The format is decided by the magic bytes alone, so that the file is opened only once more to read it.
+	// Zip files that do not start with a zip record (such as self-extracting archives) are not recognized.
+	public static boolean isZipFile(File file) throws IOException {
+		return detect(file) == ZIP;
+	}
+
+	// Writes have no content to go by, so they only take the name of the file into account.
+	public static boolean hasZipExtension(File file) {
+		String name = file.getName().toLowerCase(Locale.ROOT);
+		for (String extension : ZIP_EXTENSIONS) {
+			if (name.endsWith(extension)) return true;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jf.dexlib2.writer.io.DexDataStore;
+
+// Tracks the size of the data written to a data store.
+
+class CountingDexDataStore implements DexDataStore {
+
+	private final DexDataStore dataStore;
+	private long size;
+
+	public CountingDexDataStore(DexDataStore dataStore) {
+		this.dataStore = dataStore;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public OutputStream outputAt(final int offset) {
+		return new FilterOutputStream(dataStore.outputAt(offset)) {
+			private long position = offset;
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				advance(1);
+			}
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				advance(len);
+			}
+			private void advance(int count) {
+				position += count;
+				if (size < position) size = position;
+			}
+		};
+	}
+
+	@Override
+	public InputStream readAt(int offset) {
+		return dataStore.readAt(offset);
+	}
+
+	@Override
+	public void close() throws IOException {
+		dataStore.close();
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+
+import org.jf.dexlib2.Opcodes;
+
+// A read of an input container and a write of its classes to an output, to be run as part of a batch.
+// Outputs that are directories are purged and rewritten; other outputs are written as zip files if multi-dex,
+// or as raw dex files otherwise.
+
+public class DexBatchJob {
+
+	private final boolean multiDex;
+	private final File inputFile;
+	private final DexFileNamer inputNamer;
+	private final Opcodes opcodes;
+	private final File outputFile;
+	private final DexFileNamer outputNamer;
+	private final boolean compressed;
+	private final ClassPartitioner partitioner;
+	private final int minMainDexClassCount;
+	private final boolean minimalMainDex;
+	private final int maxDexPoolSize;
+
+	public DexBatchJob(File inputFile, File outputFile) {
+		this(true, inputFile, new BasicDexFileNamer(), null, outputFile, new BasicDexFileNamer(), true, null, 0, false,
+				DexIO.DEFAULT_MAX_DEX_POOL_SIZE);
+	}
+
+	public DexBatchJob(boolean multiDex, File inputFile, DexFileNamer inputNamer, Opcodes opcodes, File outputFile,
+			DexFileNamer outputNamer, boolean compressed, ClassPartitioner partitioner, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize) {
+		if (inputFile == null) throw new NullPointerException("inputFile");
+		if (outputFile == null) throw new NullPointerException("outputFile");
+		this.multiDex = multiDex;
+		this.inputFile = inputFile;
+		this.inputNamer = inputNamer;
+		this.opcodes = opcodes;
+		this.outputFile = outputFile;
+		this.outputNamer = outputNamer;
+		this.compressed = compressed;
+		this.partitioner = partitioner;
+		this.minMainDexClassCount = minMainDexClassCount;
+		this.minimalMainDex = minimalMainDex;
+		this.maxDexPoolSize = maxDexPoolSize;
+	}
+
+	public boolean isMultiDex() {
+		return multiDex;
+	}
+
+	public File getInputFile() {
+		return inputFile;
+	}
+
+	public DexFileNamer getInputNamer() {
+		return inputNamer;
+	}
+
+	public Opcodes getOpcodes() {
+		return opcodes;
+	}
+
+	public File getOutputFile() {
+		return outputFile;
+	}
+
+	public DexFileNamer getOutputNamer() {
+		return outputNamer;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	public ClassPartitioner getPartitioner() {
+		return partitioner;
+	}
+
+	public int getMinMainDexClassCount() {
+		return minMainDexClassCount;
+	}
+
+	public boolean isMinimalMainDex() {
+		return minimalMainDex;
+	}
+
+	public int getMaxDexPoolSize() {
+		return maxDexPoolSize;
+	}
+
+}
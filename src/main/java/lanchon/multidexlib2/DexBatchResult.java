@@ -0,0 +1,58 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+// The outcome of a batch job: the number of dex files written, or the failure that stopped the job.
+
+public class DexBatchResult {
+
+	private final DexBatchJob job;
+	private final int classCount;
+	private final int dexFileCount;
+	private final Throwable failure;
+	private final long nanos;
+
+	public DexBatchResult(DexBatchJob job, int classCount, int dexFileCount, Throwable failure, long nanos) {
+		this.job = job;
+		this.classCount = classCount;
+		this.dexFileCount = dexFileCount;
+		this.failure = failure;
+		this.nanos = nanos;
+	}
+
+	public DexBatchJob getJob() {
+		return job;
+	}
+
+	public boolean isSuccessful() {
+		return failure == null;
+	}
+
+	// The class count of the input, or -1 if it was not read.
+	public int getClassCount() {
+		return classCount;
+	}
+
+	public int getDexFileCount() {
+		return dexFileCount;
+	}
+
+	// The failure of the job, or null if successful.
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	// The time from the start of the job to the end of its last write.
+	public long getNanos() {
+		return nanos;
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+public class DexBufferPool {
+
+	public static final int DEFAULT_MAX_POOLED_BUFFERS = 16;
+	public static final int DEFAULT_MIN_BUFFER_SIZE = 1024 * 1024;
+
+	private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+	private final int maxPooledBuffers;
+	private final int minBufferSize;
+	private final ArrayDeque<byte[]> buffers;
+
+	public DexBufferPool() {
+		this(DEFAULT_MAX_POOLED_BUFFERS, DEFAULT_MIN_BUFFER_SIZE);
+	}
+
+	public DexBufferPool(int maxPooledBuffers, int minBufferSize) {
+		if (maxPooledBuffers < 0) throw new IllegalArgumentException("maxPooledBuffers");
+		if (minBufferSize < 1) throw new IllegalArgumentException("minBufferSize");
+		this.maxPooledBuffers = maxPooledBuffers;
+		this.minBufferSize = minBufferSize;
+		buffers = new ArrayDeque<>(maxPooledBuffers);
+	}
+
+	public byte[] acquire(int minSize) {
+		if (minSize < 0) throw new IllegalArgumentException("minSize");
+		synchronized (this) {
+			Iterator<byte[]> iterator = buffers.iterator();
+			while (iterator.hasNext()) {
+				byte[] buffer = iterator.next();
+				if (buffer.length >= minSize) {
+					iterator.remove();
+					return buffer;
+				}
+			}
+		}
+		return new byte[Math.max(minSize, minBufferSize)];
+	}
+
+	public byte[] grow(byte[] buffer, int used, int minSize) {
+		if (minSize <= buffer.length) return buffer;
+		if (minSize > MAX_BUFFER_SIZE) throw new OutOfMemoryError("Dex buffer too big");
+		int newSize = (int) Math.min(Math.max((long) buffer.length * 2, minSize), MAX_BUFFER_SIZE);
+		byte[] newBuffer = acquire(newSize);
+		System.arraycopy(buffer, 0, newBuffer, 0, used);
+		release(buffer);
+		return newBuffer;
+	}
+
+	public synchronized void release(byte[] buffer) {
+		if (buffer == null) throw new NullPointerException("buffer");
+		if (buffers.size() < maxPooledBuffers) buffers.push(buffer);
+	}
+
+	public int getMaxPooledBuffers() {
+		return maxPooledBuffers;
+	}
+
+	public int getMinBufferSize() {
+		return minBufferSize;
+	}
+
+}
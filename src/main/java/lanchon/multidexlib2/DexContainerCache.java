@@ -0,0 +1,249 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+
+// Keeps parsed containers across reads of the same files. Entries are keyed by canonical path, namer and opcodes,
+// and are only reused while the size and modification time of the file (or of each dex file of a directory) are
+// unchanged. Entries are evicted in least recently used order to stay within a budget of dex bytes, and are held
+// through soft references so that the garbage collector can reclaim them when the heap runs low.
+// Cached containers are shared by all readers and must not be modified.
+
+public class DexContainerCache {
+
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	private final long maxBytes;
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final ReferenceQueue<MultiDexContainer<DexBackedDexFile>> collected = new ReferenceQueue<>();
+	private long byteCount;
+	private long hitCount;
+	private long missCount;
+
+	public DexContainerCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	public DexContainerCache(long maxBytes) {
+		if (maxBytes < 0) throw new IllegalArgumentException("maxBytes");
+		this.maxBytes = maxBytes;
+	}
+
+	public MultiDexContainer<DexBackedDexFile> readMultiDexContainer(boolean multiDex, File file,
+			DexFileNamer namer, DexReadOptions options) throws IOException {
+		MultiDexContainer<DexBackedDexFile> container = readMultiDexContainer(file, namer, options);
+		MultiDexIO.checkMultiDexContainer(multiDex, file, container);
+		return container;
+	}
+
+	// Cache hits are not logged, as no dex files are read. Cached containers cannot be lazy, as their size is
+	// measured when they are added.
+	public MultiDexContainer<DexBackedDexFile> readMultiDexContainer(File file, DexFileNamer namer,
+			DexReadOptions options) throws IOException {
+		if (options.isLazy()) throw new IllegalArgumentException("Cached containers cannot be lazy");
+		Key key = new Key(file.getCanonicalPath(), namer, options.getOpcodes());
+		List<Object> stamp = getStamp(file, namer);
+		synchronized (this) {
+			purgeCollected();
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				MultiDexContainer<DexBackedDexFile> container = entry.get();
+				if (container != null && entry.stamp.equals(stamp)) {
+					hitCount++;
+					return container;
+				}
+				remove(key);
+			}
+			missCount++;
+		}
+		// Concurrent misses on the same file each read it; the last read is kept.
+		MultiDexContainer<DexBackedDexFile> container = MultiDexIO.readMultiDexContainer(file, namer, options);
+		long size = getByteCount(container);
+		if (size <= maxBytes) {
+			synchronized (this) {
+				purgeCollected();
+				if (entries.containsKey(key)) remove(key);
+				entries.put(key, new Entry(key, container, collected, stamp, size));
+				byteCount += size;
+				Iterator<Entry> iterator = entries.values().iterator();
+				while (byteCount > maxBytes) {
+					Entry eldest = iterator.next();
+					iterator.remove();
+					byteCount -= eldest.size;
+				}
+			}
+		}
+		return container;
+	}
+
+	@Deprecated
+	public MultiDexContainer<DexBackedDexFile> readMultiDexContainer(boolean multiDex, int threadCount, File file,
+			DexFileNamer namer, Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readMultiDexContainer(multiDex, file, namer, getOptions(threadCount, opcodes, logger));
+	}
+
+	@Deprecated
+	public MultiDexContainer<DexBackedDexFile> readMultiDexContainer(int threadCount, File file,
+			DexFileNamer namer, Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readMultiDexContainer(file, namer, getOptions(threadCount, opcodes, logger));
+	}
+
+	private static DexReadOptions getOptions(int threadCount, Opcodes opcodes, DexIO.Logger logger) {
+		return DexReadOptions.builder().setThreadCount(threadCount).setOpcodes(opcodes).setLogger(logger).build();
+	}
+
+	public synchronized void invalidate(File file) throws IOException {
+		String path = file.getCanonicalPath();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.key.path.equals(path)) {
+				iterator.remove();
+				byteCount -= entry.size;
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		byteCount = 0;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized int getEntryCount() {
+		purgeCollected();
+		return entries.size();
+	}
+
+	public synchronized long getByteCount() {
+		purgeCollected();
+		return byteCount;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	private void remove(Key key) {
+		Entry entry = entries.remove(key);
+		if (entry != null) byteCount -= entry.size;
+	}
+
+	private void purgeCollected() {
+		Entry entry;
+		while ((entry = (Entry) collected.poll()) != null) {
+			// The entry might have been replaced or evicted already.
+			if (entries.get(entry.key) == entry) remove(entry.key);
+		}
+	}
+
+	private static List<Object> getStamp(File file, DexFileNamer namer) throws IOException {
+		List<Object> stamp = new ArrayList<>();
+		if (file.isDirectory()) {
+			String[] names = file.list();
+			if (names == null) throw new IOException("Cannot access directory: " + file);
+			Arrays.sort(names);
+			for (String name : names) {
+				File entryFile = new File(file, name);
+				if (entryFile.isFile() && namer.isValidName(name)) {
+					stamp.add(name);
+					stamp.add(entryFile.length());
+					stamp.add(entryFile.lastModified());
+				}
+			}
+		} else {
+			if (!file.isFile()) throw new FileNotFoundException(file.toString());
+			stamp.add(file.length());
+			stamp.add(file.lastModified());
+		}
+		return stamp;
+	}
+
+	private static long getByteCount(MultiDexContainer<DexBackedDexFile> container) throws IOException {
+		long size = 0;
+		for (String name : container.getDexEntryNames()) {
+			MultiDexContainer.DexEntry<? extends DexBackedDexFile> entry = container.getEntry(name);
+			//noinspection ConstantConditions
+			size += entry.getDexFile().getBuffer().getBuf().length;
+		}
+		return size;
+	}
+
+	private static final class Key {
+
+		public final String path;
+		public final DexFileNamer namer;
+		public final int api;
+		public final int artVersion;
+
+		public Key(String path, DexFileNamer namer, Opcodes opcodes) {
+			this.path = path;
+			this.namer = namer;
+			// Containers read with auto-detected opcodes are cached apart.
+			api = opcodes != null ? opcodes.api : -1;
+			artVersion = opcodes != null ? opcodes.artVersion : -2;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (!(o instanceof Key)) return false;
+			Key key = (Key) o;
+			return api == key.api && artVersion == key.artVersion && path.equals(key.path) &&
+					namer.equals(key.namer);
+		}
+
+		@Override
+		public int hashCode() {
+			return ((path.hashCode() * 31 + namer.hashCode()) * 31 + api) * 31 + artVersion;
+		}
+
+	}
+
+	private static final class Entry extends SoftReference<MultiDexContainer<DexBackedDexFile>> {
+
+		public final Key key;
+		public final List<Object> stamp;
+		public final long size;
+
+		public Entry(Key key, MultiDexContainer<DexBackedDexFile> container,
+				ReferenceQueue<MultiDexContainer<DexBackedDexFile>> queue, List<Object> stamp, long size) {
+			super(container, queue);
+			this.key = key;
+			this.stamp = stamp;
+			this.size = size;
+		}
+
+	}
+
+}
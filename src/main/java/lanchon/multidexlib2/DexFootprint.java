@@ -0,0 +1,32 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+// The union of the footprints of a group of classes destined to share a dex file.
+
+public class DexFootprint extends Footprint {
+
+	public void add(Footprint footprint) {
+		for (int i = 0; i < sections.length; i++) sections[i].addAll(footprint.sections[i]);
+	}
+
+	public boolean fits(Footprint footprint, int maxDexPoolSize) {
+		for (Section section : SECTIONS) {
+			if (!section.isOverflowable()) continue;
+			IntHashSet items = footprint.sections[section.ordinal()];
+			IntHashSet current = sections[section.ordinal()];
+			int room = maxDexPoolSize - current.size();
+			if (items.size() > room && items.countMissingFrom(current, room) > room) return false;
+		}
+		return true;
+	}
+
+}
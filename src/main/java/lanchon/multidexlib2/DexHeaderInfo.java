@@ -0,0 +1,144 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+
+// The metadata of a dex file as given by its header and map list, obtained without parsing the dex file.
+// Sections are identified by the item type constants of dexlib2's ItemType class.
+
+public class DexHeaderInfo {
+
+	private final File file;
+	private final String entryName;
+	private final long byteCount;
+	private final int version;
+	private final int checksum;
+	private final int fileSize;
+	private final int stringCount;
+	private final int typeCount;
+	private final int protoCount;
+	private final int fieldCount;
+	private final int methodCount;
+	private final int classCount;
+	private final int dataSize;
+	private final int[] sectionTypes;
+	private final int[] sectionCounts;
+	private final int[] sectionOffsets;
+
+	DexHeaderInfo(File file, String entryName, long byteCount, int version, int checksum, int fileSize,
+			int stringCount, int typeCount, int protoCount, int fieldCount, int methodCount, int classCount,
+			int dataSize, int[] sectionTypes, int[] sectionCounts, int[] sectionOffsets) {
+		this.file = file;
+		this.entryName = entryName;
+		this.byteCount = byteCount;
+		this.version = version;
+		this.checksum = checksum;
+		this.fileSize = fileSize;
+		this.stringCount = stringCount;
+		this.typeCount = typeCount;
+		this.protoCount = protoCount;
+		this.fieldCount = fieldCount;
+		this.methodCount = methodCount;
+		this.classCount = classCount;
+		this.dataSize = dataSize;
+		this.sectionTypes = sectionTypes;
+		this.sectionCounts = sectionCounts;
+		this.sectionOffsets = sectionOffsets;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getEntryName() {
+		return entryName;
+	}
+
+	// The size of the container entry, or -1 if unknown.
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public int getChecksum() {
+		return checksum;
+	}
+
+	// The file size declared in the header.
+	public int getFileSize() {
+		return fileSize;
+	}
+
+	public int getStringCount() {
+		return stringCount;
+	}
+
+	public int getTypeCount() {
+		return typeCount;
+	}
+
+	public int getProtoCount() {
+		return protoCount;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	public int getMethodCount() {
+		return methodCount;
+	}
+
+	public int getClassCount() {
+		return classCount;
+	}
+
+	public int getDataSize() {
+		return dataSize;
+	}
+
+	// The item types of the sections listed in the map list, in file order.
+	public int[] getSectionTypes() {
+		return sectionTypes.clone();
+	}
+
+	// The item count of a section, or 0 if the section is absent.
+	public int getSectionCount(int itemType) {
+		int i = indexOf(itemType);
+		return i >= 0 ? sectionCounts[i] : 0;
+	}
+
+	// The offset of a section, or -1 if the section is absent.
+	public int getSectionOffset(int itemType) {
+		int i = indexOf(itemType);
+		return i >= 0 ? sectionOffsets[i] : -1;
+	}
+
+	// The byte size of a section, measured up to the next section or the end of the file, or 0 if absent.
+	public int getSectionSize(int itemType) {
+		int i = indexOf(itemType);
+		if (i < 0) return 0;
+		int end = i + 1 < sectionOffsets.length ? sectionOffsets[i + 1] : fileSize;
+		return Math.max(end - sectionOffsets[i], 0);
+	}
+
+	private int indexOf(int itemType) {
+		for (int i = 0; i < sectionTypes.length; i++) {
+			if (sectionTypes[i] == itemType) return i;
+		}
+		return -1;
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.io.ByteStreams;
+import org.jf.dexlib2.dexbacked.raw.HeaderItem;
+import org.jf.dexlib2.util.DexUtil;
+
+// Reads the header and map list of the dex files of a container, skipping everything else.
+// Stored zip entries and plain files are read at the needed offsets; compressed entries are inflated only up to
+// the end of their map list.
+
+class DexHeaderReader {
+
+	private static final int MAP_ITEM_SIZE = 12;
+
+	public static List<DexHeaderInfo> probe(File file, DexFileNamer namer) throws IOException {
+		if (file.isDirectory()) return probeDirectory(file, namer);
+		if (!file.isFile()) throw new FileNotFoundException(file.toString());
+		if (ContainerFormat.isZipFile(file)) return probeZipFile(file, namer);
+		return Collections.singletonList(probeFile(file, SingletonDexContainer.UNDEFINED_ENTRY_NAME, file));
+	}
+
+	public static DexHeaderInfo probeFile(File file, String entryName, File dexFile) throws IOException {
+		try (RandomAccessFile input = new RandomAccessFile(dexFile, "r")) {
+			return read(file, entryName, input, 0, input.length());
+		}
+	}
+
+	private static List<DexHeaderInfo> probeDirectory(File directory, DexFileNamer namer) throws IOException {
+		List<String> entryNames = DirectoryDexContainer.listDexFileNames(directory, namer);
+		Collections.sort(entryNames, new DexFileNameComparator(namer));
+		List<DexHeaderInfo> infos = new ArrayList<>(entryNames.size());
+		for (String entryName : entryNames) infos.add(probeFile(directory, entryName, new File(directory, entryName)));
+		return infos;
+	}
+
+	private static List<DexHeaderInfo> probeZipFile(File zip, DexFileNamer namer) throws IOException {
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			Map<String, ZipEntry> entryMap = new TreeMap<>(new DexFileNameComparator(namer));
+			boolean hasStoredEntries = false;
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				String entryName = zipEntry.getName();
+				if (namer.isValidName(entryName)) {
+					if (entryMap.put(entryName, zipEntry) != null) throw new DuplicateEntryNameException(entryName);
+					if (zipEntry.getMethod() == ZipEntry.STORED) hasStoredEntries = true;
+				}
+			}
+			List<DexHeaderInfo> infos = new ArrayList<>(entryMap.size());
+			if (!hasStoredEntries) {
+				for (ZipEntry zipEntry : entryMap.values()) infos.add(read(zip, zipFile, zipEntry));
+				return infos;
+			}
+			try (RandomAccessFile archive = new RandomAccessFile(zip, "r")) {
+				Map<String, Long> offsets = StoredZipEntries.findLocalHeaderOffsets(archive);
+				for (ZipEntry zipEntry : entryMap.values()) {
+					Long offset = offsets.get(zipEntry.getName());
+					if (offset != null) {
+						long dataOffset = StoredZipEntries.getDataOffset(archive, offset);
+						infos.add(read(zip, zipEntry.getName(), archive, dataOffset, zipEntry.getSize()));
+					} else {
+						infos.add(read(zip, zipFile, zipEntry));
+					}
+				}
+			}
+			return infos;
+		}
+	}
+
+	private static DexHeaderInfo read(File zip, ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+		try (InputStream input = zipFile.getInputStream(zipEntry)) {
+			return read(zip, zipEntry.getName(), input, zipEntry.getSize());
+		}
+	}
+
+	private static DexHeaderInfo read(File file, String entryName, RandomAccessFile input, long start,
+			long byteCount) throws IOException {
+		ByteBuffer header = StoredZipEntries.read(input, start, HeaderItem.ITEM_SIZE);
+		int mapOffset = getMapOffset(header, byteCount);
+		ByteBuffer mapSize = StoredZipEntries.read(input, start + mapOffset, 4);
+		int mapItemCount = getMapItemCount(mapSize, mapOffset, byteCount);
+		ByteBuffer mapList = StoredZipEntries.read(input, start + mapOffset + 4, mapItemCount * MAP_ITEM_SIZE);
+		return newDexHeaderInfo(file, entryName, byteCount, header, mapList, mapItemCount);
+	}
+
+	private static DexHeaderInfo read(File file, String entryName, InputStream input, long byteCount)
+			throws IOException {
+		ByteBuffer header = read(input, HeaderItem.ITEM_SIZE);
+		int mapOffset = getMapOffset(header, byteCount);
+		ByteStreams.skipFully(input, mapOffset - HeaderItem.ITEM_SIZE);
+		int mapItemCount = getMapItemCount(read(input, 4), mapOffset, byteCount);
+		ByteBuffer mapList = read(input, mapItemCount * MAP_ITEM_SIZE);
+		return newDexHeaderInfo(file, entryName, byteCount, header, mapList, mapItemCount);
+	}
+
+	private static ByteBuffer read(InputStream input, int size) throws IOException {
+		byte[] buf = new byte[size];
+		ByteStreams.readFully(input, buf);
+		return ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int getMapOffset(ByteBuffer header, long byteCount) throws IOException {
+		DexUtil.verifyDexHeader(header.array(), header.arrayOffset());
+		int mapOffset = header.getInt(HeaderItem.MAP_OFFSET);
+		long limit = byteCount >= 0 ? byteCount : header.getInt(HeaderItem.FILE_SIZE_OFFSET) & 0xffffffffL;
+		if (mapOffset < HeaderItem.ITEM_SIZE || mapOffset > limit - 4) {
+			throw new IOException("Invalid dex map offset");
+		}
+		return mapOffset;
+	}
+
+	private static int getMapItemCount(ByteBuffer mapSize, int mapOffset, long byteCount) throws IOException {
+		int count = mapSize.getInt(0);
+		long maxCount = byteCount >= 0 ? (byteCount - mapOffset - 4) / MAP_ITEM_SIZE : 0xffff;
+		if (count < 0 || count > maxCount) throw new IOException("Invalid dex map list size");
+		return count;
+	}
+
+	private static DexHeaderInfo newDexHeaderInfo(File file, String entryName, long byteCount, ByteBuffer header,
+			ByteBuffer mapList, int mapItemCount) {
+		int[] types = new int[mapItemCount];
+		int[] counts = new int[mapItemCount];
+		int[] offsets = new int[mapItemCount];
+		for (int i = 0; i < mapItemCount; i++) {
+			int position = i * MAP_ITEM_SIZE;
+			types[i] = mapList.getShort(position) & 0xffff;
+			counts[i] = mapList.getInt(position + 4);
+			offsets[i] = mapList.getInt(position + 8);
+		}
+		return new DexHeaderInfo(file, entryName, byteCount,
+				HeaderItem.getVersion(header.array(), header.arrayOffset()),
+				header.getInt(HeaderItem.CHECKSUM_OFFSET),
+				header.getInt(HeaderItem.FILE_SIZE_OFFSET),
+				header.getInt(HeaderItem.STRING_COUNT_OFFSET),
+				header.getInt(HeaderItem.TYPE_COUNT_OFFSET),
+				header.getInt(HeaderItem.PROTO_COUNT_OFFSET),
+				header.getInt(HeaderItem.FIELD_COUNT_OFFSET),
+				header.getInt(HeaderItem.METHOD_COUNT_OFFSET),
+				header.getInt(HeaderItem.CLASS_COUNT_OFFSET),
+				header.getInt(HeaderItem.DATA_SIZE_OFFSET),
+				types, counts, offsets);
+	}
+
+	private DexHeaderReader() {}
+
+}
@@ -12,17 +12,15 @@ package lanchon.multidexlib2;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InterruptedIOException;
-import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
@@ -31,23 +29,37 @@ import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.DexFile;
 import org.jf.dexlib2.writer.DexWriter;
 import org.jf.dexlib2.writer.io.DexDataStore;
-import org.jf.dexlib2.writer.io.FileDataStore;
 import org.jf.dexlib2.writer.pool.DexPool;
 
 public class DexIO {
 
 	public static final int DEFAULT_MAX_DEX_POOL_SIZE = DexWriter.MAX_POOL_SIZE;
+	public static final long NO_HEAP_BUDGET = 0;
+	public static final int NO_WRITE_QUEUE = 0;
 
 	public interface Logger {
 		void log(File file, String entryName, int typeCount);
 	}
 
+	// Loggers that also implement this interface receive performance metrics.
+	public interface Listener extends Logger {
+		void onDexRead(DexReadMetrics metrics);
+		void onDexWrite(DexWriteMetrics metrics);
+		void onWriterWorkerDone(WriterWorkerMetrics metrics);
+	}
+
+	static Listener getListener(Logger logger) {
+		return logger instanceof Listener ? (Listener) logger : null;
+	}
+
 	private DexIO() {}
 
 	// Single-Threaded Write
 
 	static void writeRawDexSingleThread(DexDataStore dataStore, DexFile dexFile, int maxDexPoolSize,
 			DexIO.Logger logger, File file) throws IOException {
+		Listener listener = getListener(logger);
+		long startTime = listener != null ? System.nanoTime() : 0;
 		Set<? extends ClassDef> classes = dexFile.getClasses();
 		Iterator<? extends ClassDef> classIterator = classes.iterator();
 		DexPool dexPool = new DexPool(dexFile.getOpcodes());
@@ -62,109 +74,542 @@ public class DexIO {
 			classCount++;
 		}
 		if (logger != null) logger.log(file, SingletonDexContainer.UNDEFINED_ENTRY_NAME, classCount);
-		dexPool.writeTo(dataStore);
+		if (listener == null) {
+			dexPool.writeTo(dataStore);
+		} else {
+			long internTime = System.nanoTime();
+			CountingDexDataStore countingDataStore = new CountingDexDataStore(dataStore);
+			dexPool.writeTo(countingDataStore);
+			long endTime = System.nanoTime();
+			listener.onDexWrite(new DexWriteMetrics(file, SingletonDexContainer.UNDEFINED_ENTRY_NAME,
+					Thread.currentThread().getName(), classCount, getItemCounts(dexPool), 0,
+					countingDataStore.getSize(), 0, internTime - startTime, 0, endTime - internTime));
+		}
 	}
 
-	static void writeMultiDexDirectorySingleThread(boolean multiDex, File directory, DexFileNameIterator nameIterator,
-			DexFile dexFile, int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger)
-			throws IOException {
+	static void writeMultiDexSingleThread(boolean multiDex, int threadCount, DexDataStoreFactory dataStoreFactory,
+			DexFileNameIterator nameIterator, DexFile dexFile, DexWriteOptions options, File file,
+			Map<String, List<String>> placement) throws IOException {
+		int minMainDexClassCount = options.getMinMainDexClassCount();
+		boolean minimalMainDex = options.isMinimalMainDex();
+		int maxDexPoolSize = options.getMaxDexPoolSize();
 		Set<? extends ClassDef> classes = dexFile.getClasses();
+		List<? extends List<? extends ClassDef>> partitions;
 		if (!multiDex) {
 			minMainDexClassCount = classes.size();
 			minimalMainDex = false;
+			partitions = Collections.singletonList(new ArrayList<>(classes));
+		} else {
+			partitions = partition(threadCount, options.getExecutor(), options.getPartitioner(), classes,
+					minMainDexClassCount, minimalMainDex, maxDexPoolSize);
 		}
-		Object lock = new Object();
-		//noinspection SynchronizationOnLocalVariableOrMethodParameter
-		synchronized (lock) {       // avoid multiple synchronizations in single-threaded mode
-			writeMultiDexDirectoryCommon(directory, nameIterator, Iterators.peekingIterator(classes.iterator()),
-					minMainDexClassCount, minimalMainDex, dexFile.getOpcodes(), maxDexPoolSize, logger, lock);
+		WriteContext context = new WriteContext(dataStoreFactory, nameIterator, dexFile.getOpcodes(), 1,
+				options.toBuilder().setHeapBudget(NO_HEAP_BUDGET).build(), file, placement);
+		boolean done = false;
+		try {
+			WorkerStats stats = context.newWorkerStats();
+			//noinspection SynchronizationOnLocalVariableOrMethodParameter
+			synchronized (context.lock) {       // avoid multiple synchronizations in single-threaded mode
+				for (List<? extends ClassDef> partition : partitions) {
+					writeMultiDexCommon(context, Iterators.peekingIterator(partition.iterator()),
+							minMainDexClassCount, minimalMainDex, stats, null);
+					minMainDexClassCount = 0;
+					minimalMainDex = false;
+				}
+			}
+			if (stats != null) stats.finish();
+			done = true;
+		} finally {
+			context.finish(done);
 		}
 	}
 
 	// Multi-Threaded Write
 
 	private static final int PER_THREAD_BATCH_SIZE = 100;
+	private static final int PER_THREAD_BATCH_DIVISOR = 4;
 
-	static void writeMultiDexDirectoryMultiThread(int threadCount, final File directory,
-			final DexFileNameIterator nameIterator, final DexFile dexFile, final int maxDexPoolSize,
-			final DexIO.Logger logger) throws IOException {
-		Iterator<? extends ClassDef> classIterator = dexFile.getClasses().iterator();
-		final Object lock = new Object();
-		List<Callable<Void>> callables = new ArrayList<>(threadCount);
-		for (int i = 0; i < threadCount; i++) {
-			final BatchedIterator<ClassDef> batchedIterator =
-					new BatchedIterator<>(classIterator, lock, PER_THREAD_BATCH_SIZE);
-			if (i != 0 && !batchedIterator.hasNext()) break;
+	static void writeMultiDexMultiThread(int threadCount, DexDataStoreFactory dataStoreFactory,
+			DexFileNameIterator nameIterator, DexFile dexFile, DexWriteOptions options, File file,
+			Map<String, List<String>> placement) throws IOException {
+		WriteContext context = new WriteContext(dataStoreFactory, nameIterator, dexFile.getOpcodes(), threadCount,
+				options, file, placement);
+		boolean done = false;
+		try {
+			List<Callable<Void>> callables = newMultiThreadWriterTasks(threadCount, context, dexFile,
+					options.getPartitioner(), options.getMinMainDexClassCount(), options.isMinimalMainDex());
+			ThreadUtils.invokeAll(threadCount, context.executor, callables);
+			done = true;
+		} finally {
+			context.finish(done);
+		}
+	}
+
+	// Returns the tasks of a multi-threaded write without running them. The tasks of planned partitions wait for
+	// each other to name their dex files in order.
+	private static List<Callable<Void>> newMultiThreadWriterTasks(int threadCount, WriteContext context,
+			DexFile dexFile, ClassPartitioner partitioner, int minMainDexClassCount, boolean minimalMainDex)
+			throws IOException {
+		List<? extends List<? extends ClassDef>> partitions = partition(threadCount, context.executor, partitioner,
+				dexFile.getClasses(), minMainDexClassCount, minimalMainDex, context.maxDexPoolSize);
+		// Only an unplanned partition is shared among the threads.
+		if (partitions.size() == 1 && !isPlanned(partitioner)) {
+			return newBatchedWriterTasks(threadCount, context, partitions.get(0), minMainDexClassCount,
+					minimalMainDex);
+		} else {
+			return newPartitionWriterTasks(threadCount, context, partitions, minMainDexClassCount, minimalMainDex);
+		}
+	}
+
+	// Returns the tasks of a multi-threaded write that never wait for each other, for pools shared with other
+	// writes. The partitions keep their class order, but their dex file boundaries are not planned: the threads
+	// take class batches as they become available, so the output depends on thread timing.
+	static List<Callable<Void>> newNonBlockingWriterTasks(int threadCount, WriteContext context, DexFile dexFile,
+			ClassPartitioner partitioner, int minMainDexClassCount, boolean minimalMainDex) throws IOException {
+		List<List<ClassDef>> partitions = partition(threadCount, context.executor, partitioner, dexFile.getClasses(),
+				minMainDexClassCount, minimalMainDex, context.maxDexPoolSize);
+		List<ClassDef> classes;
+		if (partitions.size() == 1) {
+			classes = partitions.get(0);
+		} else {
+			classes = new ArrayList<>(dexFile.getClasses().size());
+			for (List<ClassDef> partition : partitions) classes.addAll(partition);
+		}
+		return newBatchedWriterTasks(threadCount, context, classes, minMainDexClassCount, minimalMainDex);
+	}
+
+	// Workers take batches of classes from an indexed snapshot of the class set using an atomic cursor.
+	// Each worker takes its first batch when it starts, and workers that start after all batches are taken
+	// write nothing.
+	private static List<Callable<Void>> newBatchedWriterTasks(final int threadCount, final WriteContext context,
+			final List<? extends ClassDef> classes, final int minMainDexClassCount, final boolean minimalMainDex) {
+		boolean mainDexConstrained = minMainDexClassCount != 0 || minimalMainDex;
+		final int mainDexPrefixSize = Math.min(minMainDexClassCount, classes.size());
+		final AtomicInteger cursor = new AtomicInteger(mainDexPrefixSize);
+		int workerCount = Math.max(1, Math.min(threadCount, classes.size() - mainDexPrefixSize));
+		List<Callable<Void>> callables = new ArrayList<>(workerCount);
+		// The first worker writes the main dex while the others fill secondary dex files. The main dex
+		// holds the required prefix of classes followed, unless minimal, by batches taken as it fills.
+		final String mainDexName = mainDexConstrained ? context.nameIterator.next() : null;
+		for (int i = 0; i < workerCount; i++) {
+			final boolean mainDexWorker = i == 0 && mainDexConstrained;
+			final boolean alwaysWrite = i == 0;
 			//noinspection Convert2Lambda
 			callables.add(new Callable<Void>() {
 				@Override
 				public Void call() throws IOException {
-					writeMultiDexDirectoryCommon(directory, nameIterator, batchedIterator, 0, false,
-							dexFile.getOpcodes(), maxDexPoolSize, logger, lock);
+					AtomicBatchedIterator<ClassDef> batchedIterator = new AtomicBatchedIterator<>(classes, cursor,
+							threadCount * PER_THREAD_BATCH_DIVISOR, PER_THREAD_BATCH_SIZE);
+					if (mainDexWorker) {
+						PeekingIterator<ClassDef> mainDexIterator = Iterators.peekingIterator(
+								Iterators.<ClassDef>concat(classes.subList(0, mainDexPrefixSize).iterator(),
+										batchedIterator));
+						writeWorker(context, mainDexIterator, minMainDexClassCount, minimalMainDex, mainDexName);
+						return null;
+					}
+					// The first worker writes a dex file even if there are no classes.
+					if (alwaysWrite || batchedIterator.hasNext()) writeWorker(context, batchedIterator, 0, false, null);
 					return null;
 				}
 			});
 		}
-		ExecutorService service = Executors.newFixedThreadPool(threadCount);
-		try {
-			List<Future<Void>> futures = service.invokeAll(callables);
-			for (Future<Void> future : futures) {
-				try {
-					future.get();
-				} catch (ExecutionException e) {
-					Throwable c = e.getCause();
-					if (c instanceof IOException) throw (IOException) c;
-					if (c instanceof RuntimeException) throw (RuntimeException) c;
-					if (c instanceof Error) throw (Error) c;
-					throw new UndeclaredThrowableException(c);
+		return callables;
+	}
+
+	// Workers take whole partitions in order using a cursor. Partitions are interned and written in
+	// parallel but take their names in order, so the output does not depend on thread timing.
+	private static List<Callable<Void>> newPartitionWriterTasks(int threadCount, final WriteContext context,
+			final List<? extends List<? extends ClassDef>> partitions, final int minMainDexClassCount,
+			final boolean minimalMainDex) {
+		List<Callable<Void>> callables = new ArrayList<>(threadCount);
+		final AtomicInteger cursor = new AtomicInteger();
+		final PartitionOrder order = new PartitionOrder(partitions.size());
+		for (int i = 0; i < threadCount && i < partitions.size(); i++) {
+			//noinspection Convert2Lambda
+			callables.add(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					WorkerStats stats = context.newWorkerStats();
+					for (;;) {
+						long budgetTime = stats != null ? System.nanoTime() : 0;
+						int index;
+						HeapBudget.Reservation reservation = null;
+						//noinspection SynchronizationOnLocalVariableOrMethodParameter
+						synchronized (cursor) {
+							index = cursor.getAndIncrement();
+							if (index >= partitions.size()) break;
+							// Reserving in partition order lets the lowest pending partition always proceed.
+							if (context.budget != null) reservation = context.budget.acquire(context.stage);
+						}
+						try {
+							PeekingIterator<? extends ClassDef> classIterator =
+									Iterators.peekingIterator(partitions.get(index).iterator());
+							// The first partition is the main dex.
+							int minClassCount = index == 0 ? minMainDexClassCount : 0;
+							boolean minimal = index == 0 && minimalMainDex;
+							do {
+								writeDexCommon(context, classIterator, minClassCount, minimal, stats, budgetTime,
+										reservation, order, index, null);
+								budgetTime = stats != null ? System.nanoTime() : 0;
+								minClassCount = 0;
+								minimal = false;
+							} while (classIterator.hasNext());
+						} finally {
+							if (reservation != null) reservation.release();
+							order.finish(index);
+						}
+					}
+					if (stats != null) stats.finish();
+					return null;
 				}
-			}
-		} catch (InterruptedException e) {
-			InterruptedIOException ioe = new InterruptedIOException();
-			ioe.initCause(e);
-			throw ioe;
-		} finally {
-			service.shutdown();
+			});
 		}
+		return callables;
+	}
+
+	// Streaming Write
+
+	// Returns a task that writes all classes of an iterator that may be shared with other tasks.
+	// If given, the first name is used for the first dex file instead of taking the next available name.
+	static Callable<Void> newWriterTask(final WriteContext context,
+			final PeekingIterator<? extends ClassDef> classIterator, final int minMainDexClassCount,
+			final boolean minimalMainDex, final String firstName) {
+		//noinspection Convert2Lambda
+		return new Callable<Void>() {
+			@Override
+			public Void call() throws IOException {
+				writeWorker(context, classIterator, minMainDexClassCount, minimalMainDex, firstName);
+				return null;
+			}
+		};
+	}
+
+	private static void writeWorker(WriteContext context, PeekingIterator<? extends ClassDef> classIterator,
+			int minMainDexClassCount, boolean minimalMainDex, String firstName) throws IOException {
+		WorkerStats stats = context.newWorkerStats();
+		writeMultiDexCommon(context, classIterator, minMainDexClassCount, minimalMainDex, stats, firstName);
+		if (stats != null) stats.finish();
 	}
 
 	// Common Code
 
-	private static void writeMultiDexDirectoryCommon(File directory, DexFileNameIterator nameIterator,
-			PeekingIterator<? extends ClassDef> classIterator, int minMainDexClassCount, boolean minimalMainDex,
-			Opcodes opcodes, int maxDexPoolSize, DexIO.Logger logger, Object lock) throws IOException {
-		do {
-			DexPool dexPool = new DexPool(opcodes);
-			int fileClassCount = 0;
-			while (classIterator.hasNext()) {
-				if (minimalMainDex && fileClassCount >= minMainDexClassCount) break;
-				ClassDef classDef = classIterator.peek();
-				dexPool.mark();
-				dexPool.internClass(classDef);
-				if (dexPool.hasOverflowed(maxDexPoolSize)) {
-					handleDexPoolOverflow(classDef, fileClassCount, minMainDexClassCount);
-					dexPool.reset();
-					break;
-				}
-				classIterator.next();
-				fileClassCount++;
+	// The state shared by the threads that take part in a multi-dex write. All threads of the write other than
+	// the calling thread come from the executor of the options, if given.
+	static class WriteContext {
+
+		private final DexDataStoreFactory dataStoreFactory;
+		private final DexFileNameIterator nameIterator;
+		private final Opcodes opcodes;
+		private final int maxDexPoolSize;
+		private final ExecutorService executor;
+		private final DexIO.Logger logger;
+		private final Listener listener;
+		private final File file;
+		private final Object lock = new Object();
+		private final HeapBudget budget;
+		private final DexWriteStage stage;
+		private final List<WorkerStats> workerStats = new ArrayList<>();
+		private final Map<String, List<String>> placement;
+
+		public WriteContext(DexDataStoreFactory dataStoreFactory, DexFileNameIterator nameIterator, Opcodes opcodes,
+				int threadCount, DexWriteOptions options, File file) {
+			this(dataStoreFactory, nameIterator, opcodes, threadCount, options, file, null);
+		}
+
+		// If given, the placement map receives the types of the classes of each written dex file by name.
+		public WriteContext(DexDataStoreFactory dataStoreFactory, DexFileNameIterator nameIterator, Opcodes opcodes,
+				int threadCount, DexWriteOptions options, File file, Map<String, List<String>> placement) {
+			this.dataStoreFactory = dataStoreFactory;
+			this.nameIterator = nameIterator;
+			this.opcodes = opcodes;
+			maxDexPoolSize = options.getMaxDexPoolSize();
+			executor = options.getExecutor();
+			logger = options.getLogger();
+			listener = getListener(logger);
+			this.file = file;
+			long heapBudget = options.getHeapBudget();
+			budget = heapBudget != NO_HEAP_BUDGET ? new HeapBudget(heapBudget, maxDexPoolSize) : null;
+			int writeQueueDepth = options.getWriteQueueDepth();
+			stage = writeQueueDepth != NO_WRITE_QUEUE ? new DexWriteStage(threadCount, writeQueueDepth, executor) :
+					null;
+			this.placement = placement;
+		}
+
+		// Returns null if metrics are not being collected.
+		public WorkerStats newWorkerStats() {
+			if (listener == null) return null;
+			WorkerStats stats = new WorkerStats();
+			synchronized (workerStats) {
+				workerStats.add(stats);
 			}
-			File file;
-			//noinspection SynchronizationOnLocalVariableOrMethodParameter
-			synchronized (lock) {
-				String name = nameIterator.next();
-				file = new File(directory, name);
-				if (logger != null) logger.log(directory, name, fileClassCount);
-				if (classIterator instanceof BatchedIterator) {
-					((BatchedIterator<?>) classIterator).preloadBatch();
+			return stats;
+		}
+
+		public void recordPlacement(String name, List<String> types) {
+			synchronized (placement) {
+				placement.put(name, types);
+			}
+		}
+
+		// Waits for pending writes and reports worker metrics. Write failures are only rethrown on success,
+		// so that they do not mask the original failure.
+		public void finish(boolean success) throws IOException {
+			if (stage != null) {
+				try {
+					stage.finish();
+				} catch (IOException | RuntimeException e) {
+					if (success) throw e;
 				}
 			}
-			dexPool.writeTo(new FileDataStore(file));
+			if (success && listener != null) {
+				for (WorkerStats stats : workerStats) stats.report(listener);
+			}
+		}
+
+	}
+
+	private static void writeMultiDexCommon(WriteContext context, PeekingIterator<? extends ClassDef> classIterator,
+			int minMainDexClassCount, boolean minimalMainDex, WorkerStats stats, String firstName)
+			throws IOException {
+		String name = firstName;
+		do {
+			long budgetTime = stats != null ? System.nanoTime() : 0;
+			HeapBudget.Reservation reservation = context.budget != null ? context.budget.acquire(context.stage) :
+					null;
+			try {
+				writeDexCommon(context, classIterator, minMainDexClassCount, minimalMainDex, stats, budgetTime,
+						reservation, null, 0, name);
+			} finally {
+				if (reservation != null) reservation.release();
+			}
+			name = null;
 			minMainDexClassCount = 0;
 			minimalMainDex = false;
 		} while (classIterator.hasNext());
 	}
 
+	private static void writeDexCommon(WriteContext context, PeekingIterator<? extends ClassDef> classIterator,
+			int minMainDexClassCount, boolean minimalMainDex, WorkerStats stats, long budgetTime,
+			HeapBudget.Reservation reservation, PartitionOrder order, int partitionIndex, String name)
+			throws IOException {
+		long startTime = stats != null ? System.nanoTime() : 0;
+		DexPool dexPool = new DexPool(context.opcodes);
+		List<String> types = context.placement != null ? new ArrayList<String>() : null;
+		int fileClassCount = 0;
+		int resetCount = 0;
+		while (classIterator.hasNext()) {
+			if (minimalMainDex && fileClassCount >= minMainDexClassCount) break;
+			ClassDef classDef = classIterator.peek();
+			dexPool.mark();
+			dexPool.internClass(classDef);
+			if (dexPool.hasOverflowed(context.maxDexPoolSize)) {
+				handleDexPoolOverflow(classDef, fileClassCount, minMainDexClassCount);
+				dexPool.reset();
+				resetCount++;
+				break;
+			}
+			classIterator.next();
+			if (types != null) types.add(classDef.getType());
+			fileClassCount++;
+		}
+		long internTime = stats != null ? System.nanoTime() : 0;
+		if (order != null) order.await(partitionIndex);
+		//noinspection SynchronizationOnLocalVariableOrMethodParameter
+		synchronized (context.lock) {
+			if (name == null) name = context.nameIterator.next();
+			if (context.logger != null) context.logger.log(context.file, name, fileClassCount);
+		}
+		long lockTime = stats != null ? System.nanoTime() : 0;
+		DexWriteJob job = new DexWriteJob(context, name, dexPool, types, fileClassCount, resetCount, reservation,
+				stats, startTime - budgetTime, internTime - startTime, lockTime - internTime);
+		if (context.stage == null) {
+			job.call();
+		} else {
+			// Hand the pool over to the write stage and go on interning.
+			context.stage.submit(job);
+			if (stats != null) stats.addWait(System.nanoTime() - lockTime);
+		}
+	}
+
+	// Serializes a named dex pool into its data store and reports the metrics of the dex file.
+	private static class DexWriteJob implements DexWriteStage.Job {
+
+		private final WriteContext context;
+		private final String name;
+		private final DexPool dexPool;
+		private final List<String> types;
+		private final int classCount;
+		private final int resetCount;
+		private final HeapBudget.Reservation reservation;
+		private final WorkerStats stats;
+		private final long budgetWaitNanos;
+		private final long internNanos;
+		private final long lockWaitNanos;
+		private final String threadName;
+
+		public DexWriteJob(WriteContext context, String name, DexPool dexPool, List<String> types, int classCount,
+				int resetCount, HeapBudget.Reservation reservation, WorkerStats stats, long budgetWaitNanos,
+				long internNanos, long lockWaitNanos) {
+			this.context = context;
+			this.name = name;
+			this.dexPool = dexPool;
+			this.types = types;
+			this.classCount = classCount;
+			this.resetCount = resetCount;
+			this.reservation = reservation;
+			this.stats = stats;
+			this.budgetWaitNanos = budgetWaitNanos;
+			this.internNanos = internNanos;
+			this.lockWaitNanos = lockWaitNanos;
+			threadName = Thread.currentThread().getName();
+			// The pool stays reserved until written, even if the interning thread moves on.
+			if (reservation != null) reservation.retain();
+		}
+
+		@Override
+		public Void call() throws IOException {
+			try {
+				DexDataStore dataStore = context.dataStoreFactory.getDataStore(name);
+				if (stats == null && context.budget == null) {
+					dexPool.writeTo(dataStore);
+					commit(dataStore);
+					if (types != null) context.recordPlacement(name, types);
+					return null;
+				}
+				long startTime = stats != null ? System.nanoTime() : 0;
+				CountingDexDataStore countingDataStore = new CountingDexDataStore(dataStore);
+				dexPool.writeTo(countingDataStore);
+				commit(dataStore);
+				if (types != null) context.recordPlacement(name, types);
+				int[] itemCounts = getItemCounts(dexPool);
+				if (context.budget != null) {
+					context.budget.record(itemCounts, countingDataStore.getSize(), resetCount != 0);
+				}
+				if (stats != null) {
+					DexWriteMetrics metrics = new DexWriteMetrics(context.file, name, threadName, classCount,
+							itemCounts, resetCount, countingDataStore.getSize(), budgetWaitNanos, internNanos,
+							lockWaitNanos, System.nanoTime() - startTime);
+					stats.add(metrics, context.stage == null);
+					context.listener.onDexWrite(metrics);
+				}
+				return null;
+			} catch (Throwable t) {
+				// Writers waiting for the budget could otherwise wait for pools that are never written.
+				if (context.budget != null) context.budget.abort(t);
+				throw t;
+			} finally {
+				if (reservation != null) reservation.release();
+			}
+		}
+
+		// Releases the pool without writing it.
+		@Override
+		public void abandon() {
+			if (reservation != null) reservation.release();
+		}
+
+	}
+
+	private static void commit(DexDataStore dataStore) throws IOException {
+		if (dataStore instanceof CommittableDexDataStore) ((CommittableDexDataStore) dataStore).commit();
+	}
+
+	private static int[] getItemCounts(DexPool dexPool) {
+		int[] itemCounts = new int[Footprint.SECTIONS.length];
+		itemCounts[Footprint.Section.STRING.ordinal()] = dexPool.stringSection.getItemCount();
+		itemCounts[Footprint.Section.TYPE.ordinal()] = dexPool.typeSection.getItemCount();
+		itemCounts[Footprint.Section.PROTO.ordinal()] = dexPool.protoSection.getItemCount();
+		itemCounts[Footprint.Section.FIELD.ordinal()] = dexPool.fieldSection.getItemCount();
+		itemCounts[Footprint.Section.METHOD.ordinal()] = dexPool.methodSection.getItemCount();
+		itemCounts[Footprint.Section.CALL_SITE.ordinal()] = dexPool.callSiteSection.getItemCount();
+		itemCounts[Footprint.Section.METHOD_HANDLE.ordinal()] = dexPool.methodHandleSection.getItemCount();
+		return itemCounts;
+	}
+
+	private static boolean isPlanned(ClassPartitioner partitioner) {
+		return partitioner instanceof FootprintClassPartitioner &&
+				((FootprintClassPartitioner) partitioner).usesFootprints();
+	}
+
+	private static List<List<ClassDef>> partition(int threadCount, ExecutorService executor,
+			ClassPartitioner partitioner, Set<? extends ClassDef> classes, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize) throws IOException {
+		if (partitioner == null) partitioner = new SequentialClassPartitioner();
+		List<ClassDef> classList = new ArrayList<>(classes);
+		if (partitioner instanceof FootprintClassPartitioner) {
+			FootprintClassPartitioner footprintPartitioner = (FootprintClassPartitioner) partitioner;
+			if (footprintPartitioner.usesFootprints()) {
+				// Footprints are computed once, using all threads, and determine every dex file boundary upfront.
+				List<ClassFootprint> footprints = new FootprintAnalyzer().analyze(classList, threadCount,
+						executor);
+				return footprintPartitioner.partition(classList, footprints, minMainDexClassCount, minimalMainDex,
+						maxDexPoolSize);
+			}
+		}
+		return partitioner.partition(classList, minMainDexClassCount, minimalMainDex, maxDexPoolSize);
+	}
+
+	// Makes partitions written by different threads take their names in partition order.
+	private static class PartitionOrder {
+
+		private final boolean[] finished;
+		private int next;
+
+		public PartitionOrder(int partitionCount) {
+			finished = new boolean[partitionCount];
+		}
+
+		public synchronized void await(int index) throws IOException {
+			try {
+				while (next != index) wait();
+			} catch (InterruptedException e) {
+				throw ThreadUtils.interrupted(e);
+			}
+		}
+
+		// Must be invoked even if the partition failed, so that later partitions are not blocked forever.
+		public synchronized void finish(int index) {
+			finished[index] = true;
+			while (next < finished.length && finished[next]) next++;
+			notifyAll();
+		}
+
+	}
+
+	// Accumulates the metrics of the dex files interned by a thread. With a write stage, dex files are written
+	// by other threads and their write time does not count as busy time of the interning thread.
+	private static class WorkerStats {
+
+		private final String threadName = Thread.currentThread().getName();
+		private final long startTime = System.nanoTime();
+		private long totalNanos;
+		private int dexCount;
+		private int classCount;
+		private long busyNanos;
+		private long waitNanos;
+
+		public synchronized void add(DexWriteMetrics metrics, boolean written) {
+			dexCount++;
+			classCount += metrics.getClassCount();
+			busyNanos += metrics.getInternNanos() + (written ? metrics.getWriteNanos() : 0);
+			waitNanos += metrics.getBudgetWaitNanos() + metrics.getLockWaitNanos();
+		}
+
+		public synchronized void addWait(long nanos) {
+			waitNanos += nanos;
+		}
+
+		public synchronized void finish() {
+			totalNanos = System.nanoTime() - startTime;
+		}
+
+		public synchronized void report(Listener listener) {
+			listener.onWriterWorkerDone(new WriterWorkerMetrics(threadName, dexCount, classCount, busyNanos,
+					waitNanos, totalNanos));
+		}
+
+	}
+
 	private static void handleDexPoolOverflow(ClassDef classDef, int classCount, int minClassCount) {
 		if (classCount < minClassCount) throw new DexPoolOverflowException(
 				"Dex pool overflowed while writing type " + (classCount + 1) + " of " + minClassCount);
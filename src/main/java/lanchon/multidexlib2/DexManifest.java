@@ -0,0 +1,141 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Records the classes and content hashes of each dex file of a multi-dex directory, as well as the
+// size and modification time each dex file had when written, to support incremental writes.
+
+class DexManifest {
+
+	public static final String FILE_NAME = "multidexlib2.manifest";
+
+	private static final String HEADER = "multidexlib2-manifest\t1";
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	public static class Entry {
+
+		public final long size;
+		public final long lastModified;
+		public final Map<String, String> classHashes;
+
+		public Entry(long size, long lastModified, Map<String, String> classHashes) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.classHashes = classHashes;
+		}
+
+		public Entry(File file, Map<String, String> classHashes) {
+			this(file.length(), file.lastModified(), classHashes);
+		}
+
+		// Whether the dex file is unchanged since it was recorded.
+		public boolean matches(File file) {
+			return file.isFile() && file.length() == size && file.lastModified() == lastModified;
+		}
+
+	}
+
+	private final String settings;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+	public DexManifest(String settings) {
+		this.settings = settings;
+	}
+
+	public String getSettings() {
+		return settings;
+	}
+
+	public Map<String, Entry> getEntries() {
+		return entries;
+	}
+
+	public static File getFile(File directory) {
+		return new File(directory, FILE_NAME);
+	}
+
+	// Returns null if the manifest is missing or unreadable.
+	public static DexManifest read(File directory) throws IOException {
+		File file = getFile(directory);
+		if (!file.isFile()) return null;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET))) {
+			if (!HEADER.equals(reader.readLine())) return null;
+			String[] fields = split(reader.readLine(), 2);
+			if (fields == null || !fields[0].equals("settings")) return null;
+			DexManifest manifest = new DexManifest(fields[1]);
+			Map<String, String> classHashes = null;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("dex\t")) {
+					fields = split(line, 4);
+					if (fields == null) return null;
+					classHashes = new LinkedHashMap<>();
+					Entry entry = new Entry(Long.parseLong(fields[2]), Long.parseLong(fields[3]), classHashes);
+					if (manifest.entries.put(fields[1], entry) != null) return null;
+				} else if (line.startsWith("class\t")) {
+					fields = split(line, 3);
+					if (fields == null || classHashes == null) return null;
+					if (classHashes.put(fields[1], fields[2]) != null) return null;
+				} else {
+					return null;
+				}
+			}
+			return manifest;
+		} catch (FileNotFoundException | NumberFormatException e) {
+			return null;
+		}
+	}
+
+	// Writes the manifest to a temporary file first so that readers never see a partial manifest.
+	public void write(File directory) throws IOException {
+		File file = getFile(directory);
+		File tempFile = new File(directory, FILE_NAME + ".tmp");
+		try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), CHARSET))) {
+			writer.write(HEADER + "\n");
+			writer.write("settings\t" + settings + "\n");
+			for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+				Entry entry = mapEntry.getValue();
+				writer.write("dex\t" + mapEntry.getKey() + "\t" + entry.size + "\t" + entry.lastModified + "\n");
+				for (Map.Entry<String, String> classHash : entry.classHashes.entrySet()) {
+					writer.write("class\t" + classHash.getKey() + "\t" + classHash.getValue() + "\n");
+				}
+			}
+		}
+		if (file.exists() && !file.delete()) throw new IOException("Cannot delete file: " + file.toString());
+		if (!tempFile.renameTo(file)) throw new IOException("Cannot rename file: " + tempFile.toString());
+	}
+
+	public static void delete(File directory) throws IOException {
+		File file = getFile(directory);
+		if (file.exists() && !file.delete()) throw new IOException("Cannot delete file: " + file.toString());
+	}
+
+	private static String[] split(String line, int count) {
+		if (line == null) return null;
+		String[] fields = line.split("\t", -1);
+		return fields.length == count ? fields : null;
+	}
+
+}
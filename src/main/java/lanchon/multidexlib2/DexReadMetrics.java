@@ -0,0 +1,54 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+
+// Performance metrics of the read of a single dex file. Load time includes any zip inflation.
+
+public class DexReadMetrics {
+
+	private final File file;
+	private final String entryName;
+	private final int byteCount;
+	private final int classCount;
+	private final long loadNanos;
+
+	public DexReadMetrics(File file, String entryName, int byteCount, int classCount, long loadNanos) {
+		this.file = file;
+		this.entryName = entryName;
+		this.byteCount = byteCount;
+		this.classCount = classCount;
+		this.loadNanos = loadNanos;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getEntryName() {
+		return entryName;
+	}
+
+	public int getByteCount() {
+		return byteCount;
+	}
+
+	public int getClassCount() {
+		return classCount;
+	}
+
+	// The load time, or -1 if unknown.
+	public long getLoadNanos() {
+		return loadNanos;
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import org.jf.dexlib2.Opcodes;
+
+// The settings of a read. Instances are immutable and are created with a builder; unset settings take the
+// defaults of the plain read methods.
+
+public class DexReadOptions {
+
+	public static final DexReadOptions DEFAULT = new Builder().build();
+
+	private final int threadCount;
+	private final Opcodes opcodes;
+	private final boolean lazy;
+	private final MultiDexContainerBackedDexFile.DuplicateTypeCheck duplicateTypeCheck;
+	private final DexIO.Logger logger;
+
+	private DexReadOptions(Builder builder) {
+		threadCount = builder.threadCount;
+		opcodes = builder.opcodes;
+		lazy = builder.lazy;
+		duplicateTypeCheck = builder.duplicateTypeCheck;
+		logger = builder.logger;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public Opcodes getOpcodes() {
+		return opcodes;
+	}
+
+	public boolean isLazy() {
+		return lazy;
+	}
+
+	public MultiDexContainerBackedDexFile.DuplicateTypeCheck getDuplicateTypeCheck() {
+		return duplicateTypeCheck;
+	}
+
+	public DexIO.Logger getLogger() {
+		return logger;
+	}
+
+	public static class Builder {
+
+		private int threadCount = 1;
+		private Opcodes opcodes;
+		private boolean lazy;
+		private MultiDexContainerBackedDexFile.DuplicateTypeCheck duplicateTypeCheck =
+				MultiDexContainerBackedDexFile.DuplicateTypeCheck.EAGER;
+		private DexIO.Logger logger;
+
+		public Builder() {}
+
+		private Builder(DexReadOptions options) {
+			threadCount = options.threadCount;
+			opcodes = options.opcodes;
+			lazy = options.lazy;
+			duplicateTypeCheck = options.duplicateTypeCheck;
+			logger = options.logger;
+		}
+
+		// Zero or less selects one thread per processor, up to MultiDexIO.DEFAULT_MAX_THREADS. Eager reads load
+		// container entries on these threads, and merged dex files check for duplicate types on them.
+		public Builder setThreadCount(int threadCount) {
+			this.threadCount = threadCount;
+			return this;
+		}
+
+		// Null selects the opcodes of the dex version of each dex file.
+		public Builder setOpcodes(Opcodes opcodes) {
+			this.opcodes = opcodes;
+			return this;
+		}
+
+		// Defers reading and parsing each container entry until it is first accessed. Lazy reads do not log their
+		// entries, as logging needs the class count of every entry.
+		public Builder setLazy(boolean lazy) {
+			this.lazy = lazy;
+			return this;
+		}
+
+		public Builder setDuplicateTypeCheck(MultiDexContainerBackedDexFile.DuplicateTypeCheck duplicateTypeCheck) {
+			if (duplicateTypeCheck == null) throw new NullPointerException("duplicateTypeCheck");
+			this.duplicateTypeCheck = duplicateTypeCheck;
+			return this;
+		}
+
+		public Builder setLogger(DexIO.Logger logger) {
+			this.logger = logger;
+			return this;
+		}
+
+		public DexReadOptions build() {
+			return new DexReadOptions(this);
+		}
+
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+
+// Maps the types defined in a multi-dex container to the entries and classes that define them. For dex-backed
+// entries the index is built straight from the class_def and type_id items, and class objects are only created
+// when looked up.
+
+public class DexTypeIndex<T extends DexFile> {
+
+	private final List<String> entryNames;
+	private final List<T> dexFiles;
+	private final List<ClassDef[]> entryClasses;
+	private final Map<String, Long> locations;
+
+	public static <T extends DexFile> DexTypeIndex<T> build(final MultiDexContainer<T> container, int threadCount)
+			throws IOException {
+		List<String> entryNames = container.getDexEntryNames();
+		List<Callable<Entry<T>>> callables = new ArrayList<>(entryNames.size());
+		for (final String entryName : entryNames) {
+			//noinspection Convert2Lambda
+			callables.add(new Callable<Entry<T>>() {
+				@Override
+				public Entry<T> call() throws IOException {
+					MultiDexContainer.DexEntry<T> entry = container.getEntry(entryName);
+					if (entry == null) throw new IOException("Missing dex entry: " + entryName);
+					//noinspection ConstantConditions
+					return new Entry<>(entry.getDexFile());
+				}
+			});
+		}
+		List<Entry<T>> entries = ThreadUtils.invokeAll(threadCount, callables);
+		return new DexTypeIndex<>(entryNames, entries);
+	}
+
+	private DexTypeIndex(List<String> entryNames, List<Entry<T>> entries) {
+		this.entryNames = entryNames;
+		int entryCount = entries.size();
+		dexFiles = new ArrayList<>(entryCount);
+		entryClasses = new ArrayList<>(entryCount);
+		int classCount = 0;
+		for (Entry<T> entry : entries) {
+			dexFiles.add(entry.dexFile);
+			entryClasses.add(entry.classes);
+			classCount += entry.types.length;
+		}
+		locations = new HashMap<>(classCount * 4 / 3 + 1);
+		for (int i = 0; i < entryCount; i++) {
+			String[] types = entries.get(i).types;
+			for (int j = 0; j < types.length; j++) {
+				if (locations.put(types[j], ((long) i << 32) | j) != null) throw new DuplicateTypeException(types[j]);
+			}
+		}
+	}
+
+	public int size() {
+		return locations.size();
+	}
+
+	public Set<String> getTypes() {
+		return Collections.unmodifiableSet(locations.keySet());
+	}
+
+	public boolean contains(String type) {
+		return locations.containsKey(type);
+	}
+
+	// Returns null if the type is not defined in the container.
+	public String getEntryName(String type) {
+		Long location = locations.get(type);
+		return location != null ? entryNames.get((int) (location >>> 32)) : null;
+	}
+
+	// Returns null if the type is not defined in the container.
+	public ClassDef getClassDef(String type) {
+		Long location = locations.get(type);
+		if (location == null) return null;
+		int entryIndex = (int) (location >>> 32);
+		int classIndex = (int) (long) location;
+		ClassDef[] classes = entryClasses.get(entryIndex);
+		if (classes != null) return classes[classIndex];
+		return ((DexBackedDexFile) dexFiles.get(entryIndex)).getClassSection().get(classIndex);
+	}
+
+	private static class Entry<T extends DexFile> {
+
+		public final T dexFile;
+		public final String[] types;
+		public final ClassDef[] classes;
+
+		public Entry(T dexFile) {
+			this.dexFile = dexFile;
+			if (dexFile instanceof DexBackedDexFile) {
+				DexBackedDexFile dexBackedDexFile = (DexBackedDexFile) dexFile;
+				DexBackedDexFile.IndexedSection<?> classSection = dexBackedDexFile.getClassSection();
+				List<String> typeSection = dexBackedDexFile.getTypeSection();
+				int classCount = classSection.size();
+				types = new String[classCount];
+				for (int i = 0; i < classCount; i++) {
+					int typeIndex = dexBackedDexFile.getBuffer().readSmallUint(classSection.getOffset(i));
+					types[i] = typeSection.get(typeIndex);
+				}
+				classes = null;
+			} else {
+				Set<? extends ClassDef> classSet = dexFile.getClasses();
+				classes = classSet.toArray(new ClassDef[classSet.size()]);
+				types = new String[classes.length];
+				for (int i = 0; i < classes.length; i++) types[i] = classes[i].getType();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+
+// Performance metrics of the write of a single dex file.
+
+public class DexWriteMetrics {
+
+	private final File file;
+	private final String entryName;
+	private final String threadName;
+	private final int classCount;
+	private final int[] itemCounts;
+	private final int resetCount;
+	private final long byteCount;
+	private final long budgetWaitNanos;
+	private final long internNanos;
+	private final long lockWaitNanos;
+	private final long writeNanos;
+
+	public DexWriteMetrics(File file, String entryName, String threadName, int classCount, int[] itemCounts,
+			int resetCount, long byteCount, long budgetWaitNanos, long internNanos, long lockWaitNanos,
+			long writeNanos) {
+		if (itemCounts.length != Footprint.SECTIONS.length) throw new IllegalArgumentException("itemCounts");
+		this.file = file;
+		this.entryName = entryName;
+		this.threadName = threadName;
+		this.classCount = classCount;
+		this.itemCounts = itemCounts.clone();
+		this.resetCount = resetCount;
+		this.byteCount = byteCount;
+		this.budgetWaitNanos = budgetWaitNanos;
+		this.internNanos = internNanos;
+		this.lockWaitNanos = lockWaitNanos;
+		this.writeNanos = writeNanos;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public String getEntryName() {
+		return entryName;
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public int getClassCount() {
+		return classCount;
+	}
+
+	// The item count of the given index section of the dex pool.
+	public int getItemCount(Footprint.Section section) {
+		return itemCounts[section.ordinal()];
+	}
+
+	// The number of times the dex pool overflowed and was reset to its previous state.
+	public int getResetCount() {
+		return resetCount;
+	}
+
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	// Time spent waiting for the heap budget to admit a new dex pool.
+	public long getBudgetWaitNanos() {
+		return budgetWaitNanos;
+	}
+
+	// Time spent interning classes into the dex pool, including the resets.
+	public long getInternNanos() {
+		return internNanos;
+	}
+
+	// Time spent waiting to be assigned a name, which serializes the writer threads.
+	public long getLockWaitNanos() {
+		return lockWaitNanos;
+	}
+
+	// Time spent serializing the dex pool into its data store.
+	public long getWriteNanos() {
+		return writeNanos;
+	}
+
+}
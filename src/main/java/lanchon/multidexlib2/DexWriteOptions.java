@@ -0,0 +1,193 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.concurrent.ExecutorService;
+
+// The settings of a multi-dex write. Instances are immutable and are created with a builder; unset settings
+// take the defaults of the plain write methods.
+
+public class DexWriteOptions {
+
+	public static final DexWriteOptions DEFAULT = new Builder().build();
+
+	private final int threadCount;
+	private final ClassPartitioner partitioner;
+	private final int minMainDexClassCount;
+	private final boolean minimalMainDex;
+	private final int maxDexPoolSize;
+	private final long heapBudget;
+	private final int writeQueueDepth;
+	private final ExecutorService executor;
+	private final boolean zipOutput;
+	private final DexIO.Logger logger;
+
+	private DexWriteOptions(Builder builder) {
+		threadCount = builder.threadCount;
+		partitioner = builder.partitioner;
+		minMainDexClassCount = builder.minMainDexClassCount;
+		minimalMainDex = builder.minimalMainDex;
+		maxDexPoolSize = builder.maxDexPoolSize;
+		heapBudget = builder.heapBudget;
+		writeQueueDepth = builder.writeQueueDepth;
+		executor = builder.executor;
+		zipOutput = builder.zipOutput;
+		logger = builder.logger;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	public ClassPartitioner getPartitioner() {
+		return partitioner;
+	}
+
+	public int getMinMainDexClassCount() {
+		return minMainDexClassCount;
+	}
+
+	public boolean isMinimalMainDex() {
+		return minimalMainDex;
+	}
+
+	public int getMaxDexPoolSize() {
+		return maxDexPoolSize;
+	}
+
+	public long getHeapBudget() {
+		return heapBudget;
+	}
+
+	public int getWriteQueueDepth() {
+		return writeQueueDepth;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public boolean isZipOutput() {
+		return zipOutput;
+	}
+
+	public DexIO.Logger getLogger() {
+		return logger;
+	}
+
+	public static class Builder {
+
+		private int threadCount = 1;
+		private ClassPartitioner partitioner;
+		private int minMainDexClassCount;
+		private boolean minimalMainDex;
+		private int maxDexPoolSize = DexIO.DEFAULT_MAX_DEX_POOL_SIZE;
+		private long heapBudget = DexIO.NO_HEAP_BUDGET;
+		private int writeQueueDepth = DexIO.NO_WRITE_QUEUE;
+		private ExecutorService executor;
+		private boolean zipOutput;
+		private DexIO.Logger logger;
+
+		public Builder() {}
+
+		private Builder(DexWriteOptions options) {
+			threadCount = options.threadCount;
+			partitioner = options.partitioner;
+			minMainDexClassCount = options.minMainDexClassCount;
+			minimalMainDex = options.minimalMainDex;
+			maxDexPoolSize = options.maxDexPoolSize;
+			heapBudget = options.heapBudget;
+			writeQueueDepth = options.writeQueueDepth;
+			executor = options.executor;
+			zipOutput = options.zipOutput;
+			logger = options.logger;
+		}
+
+		// Zero or less selects one thread per processor, up to MultiDexIO.DEFAULT_MAX_THREADS.
+		public Builder setThreadCount(int threadCount) {
+			this.threadCount = threadCount;
+			return this;
+		}
+
+		// Null selects the default partitioning.
+		public Builder setPartitioner(ClassPartitioner partitioner) {
+			this.partitioner = partitioner;
+			return this;
+		}
+
+		public Builder setMinMainDexClassCount(int minMainDexClassCount) {
+			if (minMainDexClassCount < 0) throw new IllegalArgumentException("minMainDexClassCount");
+			this.minMainDexClassCount = minMainDexClassCount;
+			return this;
+		}
+
+		public Builder setMinimalMainDex(boolean minimalMainDex) {
+			this.minimalMainDex = minimalMainDex;
+			return this;
+		}
+
+		public Builder setMaxDexPoolSize(int maxDexPoolSize) {
+			if (maxDexPoolSize < 1) throw new IllegalArgumentException("maxDexPoolSize");
+			this.maxDexPoolSize = maxDexPoolSize;
+			return this;
+		}
+
+		// Bounds the estimated heap held by the dex pools of concurrent writer threads.
+		// DexIO.NO_HEAP_BUDGET disables the bound.
+		public Builder setHeapBudget(long heapBudget) {
+			if (heapBudget < 0) throw new IllegalArgumentException("heapBudget");
+			this.heapBudget = heapBudget;
+			return this;
+		}
+
+		// Writes dex files on separate threads, with up to writeQueueDepth interned pools waiting to be written.
+		// DexIO.NO_WRITE_QUEUE writes each dex file on the thread that interned it.
+		public Builder setWriteQueueDepth(int writeQueueDepth) {
+			if (writeQueueDepth < 0) throw new IllegalArgumentException("writeQueueDepth");
+			this.writeQueueDepth = writeQueueDepth;
+			return this;
+		}
+
+		// Runs the tasks of the write on a client-provided executor, which is not shut down, instead of on new
+		// threads. The calling thread runs any task that the executor has not started by the time its result is
+		// needed, so writes complete even if the executor is saturated or is the one running the caller.
+		public Builder setExecutor(ExecutorService executor) {
+			this.executor = executor;
+			return this;
+		}
+
+		// Makes MultiDexIO.writeDexFile() write multi-dex output to a path that is not a directory as a zip file even
+		// if its name does not end in a zip, apk or jar extension.
+		public Builder setZipOutput(boolean zipOutput) {
+			this.zipOutput = zipOutput;
+			return this;
+		}
+
+		public Builder setLogger(DexIO.Logger logger) {
+			this.logger = logger;
+			return this;
+		}
+
+		public DexWriteOptions build() {
+			return new DexWriteOptions(this);
+		}
+
+	}
+
+}
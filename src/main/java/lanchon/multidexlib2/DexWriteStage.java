@@ -0,0 +1,136 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Serializes finished dex pools on other threads, so that the interning threads can move on to their next pool
+// while earlier pools are written out. Pools are written on a client-provided executor if given, or else on a
+// pool of dedicated threads. Up to queueDepth pools wait to be written; a thread that submits a pool while the
+// queue is full writes the oldest queued pool itself, so that writes never wait for executor threads.
+// After a failure, the pools that are still queued are abandoned instead of written.
+
+class DexWriteStage {
+
+	// A write that must release what it holds even if it never runs.
+	interface Job extends Callable<Void> {
+		void abandon();
+	}
+
+	private final ExecutorService service;
+	private final boolean ownService;
+	private final int queueDepth;
+	private final Queue<Job> queue = new ArrayDeque<>();
+	private int runningCount;
+	private volatile Throwable failure;
+
+	public DexWriteStage(int threadCount, int queueDepth, ExecutorService executor) {
+		if (threadCount < 1) throw new IllegalArgumentException("threadCount");
+		if (queueDepth < 1) throw new IllegalArgumentException("queueDepth");
+		ownService = executor == null;
+		service = ownService ? Executors.newFixedThreadPool(threadCount) : executor;
+		this.queueDepth = queueDepth;
+	}
+
+	public void submit(Job job) throws IOException {
+		Job overflow;
+		synchronized (this) {
+			if (failure != null) {
+				job.abandon();
+				checkFailure();
+			}
+			queue.add(job);
+			overflow = queue.size() > queueDepth ? queue.poll() : null;
+		}
+		try {
+			//noinspection Convert2Lambda
+			service.execute(new Runnable() {
+				@Override
+				public void run() {
+					runNext();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// The job is written by a later submission or by finish().
+		}
+		if (overflow != null) run(overflow);
+		checkFailure();
+	}
+
+	// Writes the queued pools on the calling thread. Threads that wait for resources held by queued pools
+	// invoke this so that they do not depend on executor threads to free them.
+	public void runPending() {
+		for (;;) {
+			Job job;
+			synchronized (this) {
+				job = queue.poll();
+			}
+			if (job == null) return;
+			run(job);
+		}
+	}
+
+	// Writes the queued pools that executor threads did not take, waits for the pools being written by executor
+	// threads, and rethrows the first failure, if any.
+	public void finish() throws IOException {
+		try {
+			runPending();
+			synchronized (this) {
+				while (runningCount != 0) wait();
+			}
+		} catch (InterruptedException e) {
+			throw ThreadUtils.interrupted(e);
+		} finally {
+			if (ownService) service.shutdown();
+		}
+		checkFailure();
+	}
+
+	private void runNext() {
+		Job job;
+		synchronized (this) {
+			job = queue.poll();
+			if (job == null) return;
+			runningCount++;
+		}
+		try {
+			run(job);
+		} finally {
+			synchronized (this) {
+				runningCount--;
+				notifyAll();
+			}
+		}
+	}
+
+	private void run(Job job) {
+		try {
+			if (failure == null) job.call();
+			else job.abandon();
+		} catch (Throwable t) {
+			synchronized (this) {
+				if (failure == null) failure = t;
+			}
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure;
+		if (t != null) throw ThreadUtils.rethrow(t);
+	}
+
+}
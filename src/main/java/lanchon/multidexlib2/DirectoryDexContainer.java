@@ -12,6 +12,9 @@ package lanchon.multidexlib2;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -21,18 +24,62 @@ import org.jf.dexlib2.dexbacked.DexBackedDexFile;
 public class DirectoryDexContainer extends AbstractMultiDexContainer<DexBackedDexFile> {
 
 	public DirectoryDexContainer(File directory, DexFileNamer namer, Opcodes opcodes) throws IOException {
-		Map<String, DexEntry<DexBackedDexFile>> entryMap = new TreeMap<>(new DexFileNameComparator(namer));
+		this(directory, namer, opcodes, false, 1);
+	}
+
+	public DirectoryDexContainer(File directory, DexFileNamer namer, Opcodes opcodes, boolean lazy)
+			throws IOException {
+		this(directory, namer, opcodes, lazy, 1);
+	}
+
+	public DirectoryDexContainer(File directory, DexFileNamer namer, Opcodes opcodes, int threadCount)
+			throws IOException {
+		this(directory, namer, opcodes, false, threadCount);
+	}
+
+	private DirectoryDexContainer(File directory, DexFileNamer namer, Opcodes opcodes, boolean lazy,
+			int threadCount) throws IOException {
+		Map<String, FileDexEntry> entryMap = new TreeMap<>(new DexFileNameComparator(namer));
 		String[] names = directory.list();
 		if (names == null) throw new IOException("Cannot access directory: " + directory);
 		for (String entryName : names) {
 			File file = new File(directory, entryName);
 			if (file.isFile() && namer.isValidName(entryName)) {
-				DexBackedDexFile dexFile = RawDexIO.readRawDexFile(file, opcodes);
-				DexEntry<DexBackedDexFile> entry = new BasicDexEntry<>(this, entryName, dexFile);
+				FileDexEntry entry = new FileDexEntry(entryName, file, opcodes);
 				if (entryMap.put(entryName, entry) != null) throw duplicateEntryName(entryName);
 			}
 		}
-		initialize(entryMap);
+		if (!lazy) loadEntries(entryMap.values(), threadCount);
+		initialize(Collections.<String, DexEntry<DexBackedDexFile>>unmodifiableMap(entryMap));
+	}
+
+	// Lists the names of the dex files of a directory without reading them.
+	static List<String> listDexFileNames(File directory, DexFileNamer namer) throws IOException {
+		String[] names = directory.list();
+		if (names == null) throw new IOException("Cannot list directory: " + directory.toString());
+		List<String> dexNames = new ArrayList<>();
+		for (String name : names) {
+			if (namer.isValidName(name) && new File(directory, name).isFile()) dexNames.add(name);
+		}
+		return dexNames;
+	}
+
+	private class FileDexEntry extends LazyDexEntry<DirectoryDexContainer, DexBackedDexFile> {
+
+		private final File file;
+		private final Opcodes opcodes;
+
+		public FileDexEntry(String entryName, File file, Opcodes opcodes) {
+			super(DirectoryDexContainer.this, entryName);
+			this.file = file;
+			this.opcodes = opcodes;
+		}
+
+		@Override
+		protected DexBackedDexFile loadDexFile() throws IOException {
+			return RawDexIO.readRawDexFile(file, opcodes);
+		}
+
 	}
 
 }
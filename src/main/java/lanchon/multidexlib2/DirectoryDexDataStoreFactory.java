@@ -0,0 +1,36 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jf.dexlib2.writer.io.DexDataStore;
+import org.jf.dexlib2.writer.io.FileDataStore;
+
+public class DirectoryDexDataStoreFactory implements DexDataStoreFactory {
+
+	private final File directory;
+
+	public DirectoryDexDataStoreFactory(File directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public DexDataStore getDataStore(String name) throws IOException {
+		return new FileDataStore(new File(directory, name));
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Stages a directory write in a sibling directory that is then renamed into place, so that readers never see a
+// partially written set of dex files. The entries of the output directory other than its dex files and manifest,
+// including subdirectories, are moved to the staging directory before the swap and moved back if the swap fails.
+// Replacing an existing directory takes two atomic renames, between which the output directory is briefly absent.
+// Only dex files and manifests are ever deleted, so a failure never loses files of the user.
+
+class DirectoryStaging {
+
+	private static final String STAGING_INFIX = ".staging-";
+	private static final String BACKUP_SUFFIX = ".old";
+
+	public static File create(File directory) throws IOException {
+		File parent = directory.getAbsoluteFile().getParentFile();
+		if (parent == null) throw new IOException("Cannot stage root directory: " + directory.toString());
+		return Files.createTempDirectory(parent.toPath(), directory.getName() + STAGING_INFIX).toFile();
+	}
+
+	public static void commit(File stagingDirectory, File directory, DexFileNamer namer) throws IOException {
+		directory = directory.getAbsoluteFile();
+		if (!directory.exists()) {
+			move(stagingDirectory, directory);
+			return;
+		}
+		String[] names = directory.list();
+		if (names == null) throw new IOException("Cannot list directory: " + directory.toString());
+		// The backup name is unique as long as the staging directory exists.
+		File backupDirectory = new File(stagingDirectory.getPath() + BACKUP_SUFFIX);
+		List<String> carriedNames = new ArrayList<>();
+		try {
+			for (String name : names) {
+				if (isWrittenFile(new File(directory, name), namer)) continue;
+				Files.move(new File(directory, name).toPath(), new File(stagingDirectory, name).toPath());
+				carriedNames.add(name);
+			}
+			move(directory, backupDirectory);
+			try {
+				move(stagingDirectory, directory);
+			} catch (IOException e) {
+				try {
+					move(backupDirectory, directory);
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+				throw e;
+			}
+		} catch (IOException e) {
+			// Give the carried entries back before the staging directory is discarded.
+			for (String name : carriedNames) {
+				try {
+					Files.move(new File(stagingDirectory, name).toPath(), new File(directory, name).toPath());
+				} catch (IOException suppressed) {
+					e.addSuppressed(suppressed);
+				}
+			}
+			throw e;
+		}
+		delete(backupDirectory, namer);
+	}
+
+	// Deletes a staging directory that will not be committed.
+	public static void discard(File stagingDirectory, DexFileNamer namer) throws IOException {
+		if (stagingDirectory.exists()) delete(stagingDirectory, namer);
+	}
+
+	private static void move(File source, File target) throws IOException {
+		Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static boolean isWrittenFile(File file, DexFileNamer namer) {
+		String name = file.getName();
+		return (name.equals(DexManifest.FILE_NAME) || namer.isValidName(name)) && file.isFile();
+	}
+
+	// Deletes the dex files and manifest of a staging or backup directory, and then the directory if it is empty.
+	// Anything else can only be an entry of the user that a failed commit could not give back, and is kept.
+	private static void delete(File directory, DexFileNamer namer) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) throw new IOException("Cannot list directory: " + directory.toString());
+		int keptCount = 0;
+		for (File file : files) {
+			if (!isWrittenFile(file, namer)) keptCount++;
+			else if (!file.delete()) throw new IOException("Cannot delete file: " + file.toString());
+		}
+		if (keptCount == 0 && !directory.delete()) {
+			throw new IOException("Cannot delete directory: " + directory.toString());
+		}
+	}
+
+	private DirectoryStaging() {}
+
+}
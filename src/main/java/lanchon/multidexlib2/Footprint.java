@@ -0,0 +1,60 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+// The items referenced by a class or a group of classes in each of the index sections of a dex file. Items are
+// identified by the int ids assigned by a FootprintAnalyzer, so only footprints from the same analyzer can be mixed.
+
+public abstract class Footprint {
+
+	public enum Section {
+		STRING(false),
+		TYPE(true),
+		PROTO(true),
+		FIELD(true),
+		METHOD(true),
+		CALL_SITE(true),
+		METHOD_HANDLE(true);
+
+		private final boolean overflowable;
+
+		Section(boolean overflowable) {
+			this.overflowable = overflowable;
+		}
+
+		// Whether the section counts towards dex pool overflow.
+		public boolean isOverflowable() {
+			return overflowable;
+		}
+	}
+
+	static final Section[] SECTIONS = Section.values();
+
+	final IntHashSet[] sections = new IntHashSet[SECTIONS.length];
+
+	Footprint() {
+		for (int i = 0; i < sections.length; i++) sections[i] = new IntHashSet();
+	}
+
+	public int getCount(Section section) {
+		return sections[section.ordinal()].size();
+	}
+
+	// Size of the largest section that counts towards dex pool overflow.
+	public int getSize() {
+		int size = 0;
+		for (Section section : SECTIONS) {
+			if (section.overflowable) size = Math.max(size, sections[section.ordinal()].size());
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jf.dexlib2.iface.ClassDef;
+
+// Computes class footprints, assigning each distinct referenced item a small int id so that footprints can be
+// stored in primitive sets and compared cheaply. Thread-safe.
+
+public class FootprintAnalyzer {
+
+	private static final int PER_THREAD_BATCH_COUNT = 4;
+
+	private final List<ConcurrentMap<Object, Integer>> idMaps;
+	private final AtomicInteger lastId = new AtomicInteger();
+
+	public FootprintAnalyzer() {
+		idMaps = new ArrayList<>(Footprint.SECTIONS.length);
+		for (int i = 0; i < Footprint.SECTIONS.length; i++) idMaps.add(new ConcurrentHashMap<Object, Integer>());
+	}
+
+	public ClassFootprint analyze(ClassDef classDef) {
+		return new ClassFootprint(this, classDef);
+	}
+
+	public List<ClassFootprint> analyze(List<? extends ClassDef> classes, int threadCount) throws IOException {
+		return analyze(classes, threadCount, null);
+	}
+
+	// Runs the analysis on the executor, if not null, instead of on new threads.
+	public List<ClassFootprint> analyze(final List<? extends ClassDef> classes, int threadCount,
+			ExecutorService executor) throws IOException {
+		threadCount = ThreadUtils.resolveThreadCount(threadCount, MultiDexIO.DEFAULT_MAX_THREADS);
+		int classCount = classes.size();
+		int batchCount = Math.min(threadCount > 1 ? threadCount * PER_THREAD_BATCH_COUNT : 1, classCount);
+		List<Callable<List<ClassFootprint>>> callables = new ArrayList<>(batchCount);
+		for (int i = 0; i < batchCount; i++) {
+			final int start = (int) ((long) classCount * i / batchCount);
+			final int end = (int) ((long) classCount * (i + 1) / batchCount);
+			//noinspection Convert2Lambda
+			callables.add(new Callable<List<ClassFootprint>>() {
+				@Override
+				public List<ClassFootprint> call() {
+					List<ClassFootprint> footprints = new ArrayList<>(end - start);
+					for (int j = start; j < end; j++) footprints.add(analyze(classes.get(j)));
+					return footprints;
+				}
+			});
+		}
+		List<ClassFootprint> footprints = new ArrayList<>(classCount);
+		for (List<ClassFootprint> batch : ThreadUtils.invokeAll(threadCount, executor, callables)) {
+			footprints.addAll(batch);
+		}
+		return footprints;
+	}
+
+	int getId(Footprint.Section section, Object item) {
+		ConcurrentMap<Object, Integer> idMap = idMaps.get(section.ordinal());
+		Integer id = idMap.get(item);
+		if (id == null) {
+			Integer newId = lastId.incrementAndGet();
+			id = idMap.putIfAbsent(item, newId);
+			if (id == null) id = newId;
+		}
+		return id;
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.jf.dexlib2.iface.ClassDef;
+
+abstract class FootprintClassPartitioner implements ClassPartitioner {
+
+	@Override
+	public List<List<ClassDef>> partition(List<? extends ClassDef> classes, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize) throws IOException {
+		List<ClassFootprint> footprints = new FootprintAnalyzer().analyze(classes, 1);
+		return partition(classes, footprints, minMainDexClassCount, minimalMainDex, maxDexPoolSize);
+	}
+
+	// Partitions the classes using precomputed footprints, which must all come from the same analyzer.
+	public List<List<ClassDef>> partition(List<? extends ClassDef> classes, List<ClassFootprint> footprints,
+			int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize) {
+		int classCount = classes.size();
+		if (footprints.size() != classCount) throw new IllegalArgumentException("footprints");
+		int mainCount = Math.min(minMainDexClassCount, classCount);
+		List<Bin> bins = new ArrayList<>();
+		Bin mainBin = new Bin();
+		for (int i = 0; i < mainCount; i++) mainBin.add(new Item(i, classes.get(i), footprints.get(i)));
+		bins.add(mainBin);
+		List<Item> items = new ArrayList<>(classCount - mainCount);
+		for (int i = mainCount; i < classCount; i++) items.add(new Item(i, classes.get(i), footprints.get(i)));
+		pack(items, bins, minimalMainDex ? 1 : 0, maxDexPoolSize);
+		List<List<ClassDef>> partitions = new ArrayList<>(bins.size());
+		for (Bin bin : bins) {
+			if (bin.items.isEmpty() && bin != mainBin) continue;
+			// Keep the original class order within each dex file.
+			Collections.sort(bin.items, Item.INDEX_ORDER);
+			List<ClassDef> partition = new ArrayList<>(bin.items.size());
+			for (Item item : bin.items) partition.add(item.classDef);
+			partitions.add(partition);
+		}
+		return partitions;
+	}
+
+	// Whether partition() makes use of class footprints.
+	boolean usesFootprints() {
+		return true;
+	}
+
+	// Distributes the items among the bins, creating new bins as needed. Bins before firstOpenBin are closed.
+	// Package-private along with the items and bins, so that only the partitioners of this package implement it.
+	abstract void pack(List<Item> items, List<Bin> bins, int firstOpenBin, int maxDexPoolSize);
+
+	static Bin newBin(List<Bin> bins) {
+		Bin bin = new Bin();
+		bins.add(bin);
+		return bin;
+	}
+
+	static class Item {
+
+		public static final Comparator<Item> INDEX_ORDER = new Comparator<Item>() {
+			@Override
+			public int compare(Item l, Item r) {
+				return Integer.compare(l.index, r.index);
+			}
+		};
+
+		public final int index;
+		public final ClassDef classDef;
+		public final ClassFootprint footprint;
+
+		public Item(int index, ClassDef classDef, ClassFootprint footprint) {
+			this.index = index;
+			this.classDef = classDef;
+			this.footprint = footprint;
+		}
+
+	}
+
+	static class Bin {
+
+		public final List<Item> items = new ArrayList<>();
+		public final DexFootprint footprint = new DexFootprint();
+
+		public boolean fits(Footprint footprint, int maxDexPoolSize) {
+			return this.footprint.fits(footprint, maxDexPoolSize);
+		}
+
+		public void add(Item item) {
+			items.add(item);
+			footprint.add(item.footprint);
+		}
+
+	}
+
+}
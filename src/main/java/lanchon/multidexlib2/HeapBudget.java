@@ -0,0 +1,135 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// Limits the estimated heap held by the dex pools that are live at the same time. Writers reserve the largest
+// pool estimate measured so far (initially that of a full pool) before creating a pool, and wait while the budget
+// is exhausted. Only a pool that overflowed can lower the initial estimate, as smaller pools (such as the last one
+// or a minimal main dex) say nothing about the size of a full pool.
+// A single pool can always proceed, even if its estimate exceeds the whole budget. Once a write fails, waiting and
+// later writers fail too instead of waiting for pools that may never be written.
+
+class HeapBudget {
+
+	// Rough heap cost of an interned item, including its pool map entry and index bookkeeping.
+	private static final int BYTES_PER_ITEM = 128;
+	// Rough item count of a full dex pool, relative to the maximum size of its largest section.
+	private static final int ITEMS_PER_MAX_POOL_SIZE = 3;
+	private static final int BYTES_PER_PERMIT = 1024;
+	private static final long HELP_INTERVAL_MILLIS = 10;
+
+	private final int totalPermits;
+	private final Semaphore semaphore;
+	private volatile int reservation;
+	private boolean measured;
+	private volatile Throwable failure;
+
+	public HeapBudget(long heapBudget, int maxDexPoolSize) {
+		if (heapBudget <= 0) throw new IllegalArgumentException("heapBudget");
+		totalPermits = toPermits(heapBudget);
+		semaphore = new Semaphore(totalPermits, true);
+		// Assume full pools until actual pools are measured.
+		reservation = toPermits((long) ITEMS_PER_MAX_POOL_SIZE * maxDexPoolSize * BYTES_PER_ITEM);
+	}
+
+	// While waiting, writes the pools queued in the write stage, if given, so that the permits they hold are not
+	// left waiting for executor threads.
+	public Reservation acquire(DexWriteStage stage) throws IOException {
+		checkFailure();
+		int permits = getReservationPermits();
+		try {
+			if (stage == null) {
+				semaphore.acquire(permits);
+			} else {
+				while (!semaphore.tryAcquire(permits, HELP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+					stage.runPending();
+				}
+			}
+		} catch (InterruptedException e) {
+			throw ThreadUtils.interrupted(e);
+		}
+		if (failure != null) {
+			// Pass the permits on to the next waiter, which then fails too.
+			semaphore.release(permits);
+			checkFailure();
+		}
+		return new Reservation(permits);
+	}
+
+	// Fails pending and future acquisitions with the given failure of the write.
+	public void abort(Throwable t) {
+		synchronized (this) {
+			if (failure != null) return;
+			failure = t;
+		}
+		semaphore.release(totalPermits);
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure;
+		if (t != null) throw ThreadUtils.rethrow(t);
+	}
+
+	// Records the estimate of a pool that was fully built. A pool is full if it overflowed while interning.
+	public void record(int[] itemCounts, long byteCount, boolean full) {
+		long itemCount = 0;
+		for (int count : itemCounts) itemCount += count;
+		int estimate = toPermits(itemCount * BYTES_PER_ITEM + byteCount);
+		synchronized (this) {
+			// The first full pool replaces the initial estimate; from then on estimates only grow.
+			if (full && !measured) {
+				reservation = estimate;
+				measured = true;
+			} else if (estimate > reservation) {
+				reservation = estimate;
+			}
+		}
+	}
+
+	// The permits taken by the next reservation.
+	public int getReservationPermits() {
+		return Math.min(reservation, totalPermits);
+	}
+
+	// A reservation can be shared, for instance by the threads that intern and write a pool.
+	// Its permits are returned once every holder has released it.
+	public class Reservation {
+
+		private final int permits;
+		private int holders = 1;
+
+		private Reservation(int permits) {
+			this.permits = permits;
+		}
+
+		public synchronized void retain() {
+			holders++;
+		}
+
+		public void release() {
+			boolean last;
+			synchronized (this) {
+				last = --holders == 0;
+			}
+			if (last) semaphore.release(permits);
+		}
+
+	}
+
+	private static int toPermits(long bytes) {
+		return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (bytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+	}
+
+}
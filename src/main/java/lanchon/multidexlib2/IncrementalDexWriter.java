@@ -0,0 +1,192 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+
+// Rewrites a multi-dex directory keeping the dex files whose classes are all unchanged since the previous write.
+// Classes from new or changed dex files are written to the free names, and the remaining gaps in the name sequence
+// are then closed by renaming the dex files at its end.
+
+class IncrementalDexWriter {
+
+	private static final int PER_THREAD_BATCH_COUNT = 4;
+
+	public static int write(File directory, DexFileNamer namer, DexFile dexFile, DexWriteOptions options)
+			throws IOException {
+		int threadCount = ThreadUtils.resolveThreadCount(options.getThreadCount(), MultiDexIO.DEFAULT_MAX_THREADS);
+		final Opcodes opcodes = dexFile.getOpcodes();
+		String settings = "api=" + opcodes.api + " art=" + opcodes.artVersion + " maxDexPoolSize=" +
+				options.getMaxDexPoolSize();
+		List<ClassDef> classes = new ArrayList<>(dexFile.getClasses());
+		List<String> hashList = hashClasses(threadCount, classes);
+		Map<String, String> hashes = new HashMap<>(classes.size() * 2);
+		for (int i = 0; i < classes.size(); i++) hashes.put(classes.get(i).getType(), hashList.get(i));
+
+		// Keep the dex files that match the manifest and only contain unchanged classes; delete the rest.
+		DexManifest oldManifest = DexManifest.read(directory);
+		if (oldManifest != null && !oldManifest.getSettings().equals(settings)) oldManifest = null;
+		DexManifest.delete(directory);
+		SortedMap<Integer, DexManifest.Entry> keptEntries = new TreeMap<>();
+		Set<String> keptTypes = new HashSet<>();
+		for (String name : DirectoryDexContainer.listDexFileNames(directory, namer)) {
+			File file = new File(directory, name);
+			DexManifest.Entry entry = oldManifest != null ? oldManifest.getEntries().get(name) : null;
+			if (entry != null && entry.matches(file) && isUnchanged(entry, hashes, keptTypes)) {
+				keptEntries.put(namer.getIndex(name), entry);
+				keptTypes.addAll(entry.classHashes.keySet());
+			} else {
+				if (!file.delete()) throw new IOException("Cannot delete file: " + file.toString());
+			}
+		}
+
+		// Write the remaining classes, filling the free names first.
+		final Set<ClassDef> remainingClasses = new LinkedHashSet<>();
+		for (ClassDef classDef : classes) {
+			if (!keptTypes.contains(classDef.getType())) remainingClasses.add(classDef);
+		}
+		List<Integer> freeIndexes = new ArrayList<>();
+		int nextIndex = keptEntries.isEmpty() ? 0 : keptEntries.lastKey() + 1;
+		for (int i = 0; i < nextIndex; i++) {
+			if (!keptEntries.containsKey(i)) freeIndexes.add(i);
+		}
+		List<Integer> writtenIndexes = new ArrayList<>();
+		// The classes of each written dex file are recorded as it is written, so that it need not be read back.
+		Map<String, List<String>> placement = new HashMap<>();
+		if (!remainingClasses.isEmpty()) {
+			DexFile remainingDexFile = new DexFile() {
+				@Override
+				public Set<? extends ClassDef> getClasses() {
+					return remainingClasses;
+				}
+				@Override
+				public Opcodes getOpcodes() {
+					return opcodes;
+				}
+			};
+			int count = MultiDexIO.writeMultiDex(true, new DirectoryDexDataStoreFactory(directory),
+					new RemappedDexFileNamer(namer, freeIndexes, nextIndex), remainingDexFile, options, directory,
+					placement);
+			for (int i = 0; i < count; i++) {
+				writtenIndexes.add(i < freeIndexes.size() ? freeIndexes.get(i) : nextIndex + i - freeIndexes.size());
+			}
+		}
+
+		// Record the new dex files and close any gaps left in the name sequence.
+		SortedMap<Integer, DexManifest.Entry> entries = new TreeMap<>(keptEntries);
+		for (int index : writtenIndexes) {
+			String name = namer.getName(index);
+			Map<String, String> classHashes = new LinkedHashMap<>();
+			for (String type : placement.get(name)) classHashes.put(type, hashes.get(type));
+			entries.put(index, new DexManifest.Entry(new File(directory, name), classHashes));
+		}
+		for (int index = 0; index < entries.size(); index++) {
+			if (entries.containsKey(index)) continue;
+			int lastIndex = entries.lastKey();
+			File file = new File(directory, namer.getName(lastIndex));
+			File newFile = new File(directory, namer.getName(index));
+			if (!file.renameTo(newFile)) throw new IOException("Cannot rename file: " + file.toString());
+			entries.put(index, new DexManifest.Entry(newFile, entries.remove(lastIndex).classHashes));
+		}
+
+		DexManifest manifest = new DexManifest(settings);
+		for (Map.Entry<Integer, DexManifest.Entry> entry : entries.entrySet()) {
+			manifest.getEntries().put(namer.getName(entry.getKey()), entry.getValue());
+		}
+		manifest.write(directory);
+		return entries.size();
+	}
+
+	private static boolean isUnchanged(DexManifest.Entry entry, Map<String, String> hashes, Set<String> keptTypes) {
+		if (entry.classHashes.isEmpty()) return false;
+		for (Map.Entry<String, String> classHash : entry.classHashes.entrySet()) {
+			String type = classHash.getKey();
+			if (!classHash.getValue().equals(hashes.get(type)) || keptTypes.contains(type)) return false;
+		}
+		return true;
+	}
+
+	private static List<String> hashClasses(int threadCount, final List<ClassDef> classes) throws IOException {
+		int classCount = classes.size();
+		int batchCount = Math.min(threadCount > 1 ? threadCount * PER_THREAD_BATCH_COUNT : 1, classCount);
+		List<Callable<List<String>>> callables = new ArrayList<>(batchCount);
+		for (int i = 0; i < batchCount; i++) {
+			final int start = (int) ((long) classCount * i / batchCount);
+			final int end = (int) ((long) classCount * (i + 1) / batchCount);
+			//noinspection Convert2Lambda
+			callables.add(new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					List<String> hashes = new ArrayList<>(end - start);
+					for (int j = start; j < end; j++) hashes.add(ClassHasher.hash(classes.get(j)));
+					return hashes;
+				}
+			});
+		}
+		List<String> hashes = new ArrayList<>(classCount);
+		for (List<String> batch : ThreadUtils.invokeAll(threadCount, callables)) hashes.addAll(batch);
+		return hashes;
+	}
+
+	// Maps consecutive indexes to the free indexes and then to the indexes that follow the kept dex files.
+	private static class RemappedDexFileNamer implements DexFileNamer {
+
+		private final DexFileNamer namer;
+		private final List<Integer> freeIndexes;
+		private final int nextIndex;
+
+		public RemappedDexFileNamer(DexFileNamer namer, List<Integer> freeIndexes, int nextIndex) {
+			this.namer = namer;
+			this.freeIndexes = freeIndexes;
+			this.nextIndex = nextIndex;
+		}
+
+		@Override
+		public String getName(int index) {
+			int size = freeIndexes.size();
+			return namer.getName(index < size ? freeIndexes.get(index) : nextIndex + index - size);
+		}
+
+		@Override
+		public int getIndex(String name) {
+			int index = namer.getIndex(name);
+			if (index < 0) return index;
+			int freeIndex = freeIndexes.indexOf(index);
+			if (freeIndex >= 0) return freeIndex;
+			return index >= nextIndex ? freeIndexes.size() + index - nextIndex : -1;
+		}
+
+		@Override
+		public boolean isValidName(String name) {
+			return getIndex(name) >= 0;
+		}
+
+	}
+
+	private IncrementalDexWriter() {}
+
+}
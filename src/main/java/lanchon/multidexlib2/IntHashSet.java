@@ -0,0 +1,88 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+// An open addressing hash set of positive ints that avoids boxing. Zero marks empty slots.
+
+class IntHashSet {
+
+	private static final int MIN_CAPACITY = 8;
+
+	private int[] table;
+	private int size;
+
+	public IntHashSet() {
+		table = new int[MIN_CAPACITY];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean contains(int value) {
+		int mask = table.length - 1;
+		for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+			int slot = table[i];
+			if (slot == value) return true;
+			if (slot == 0) return false;
+		}
+	}
+
+	public boolean add(int value) {
+		if (value <= 0) throw new IllegalArgumentException("value");
+		int mask = table.length - 1;
+		for (int i = hash(value) & mask; ; i = (i + 1) & mask) {
+			int slot = table[i];
+			if (slot == value) return false;
+			if (slot == 0) {
+				table[i] = value;
+				if (++size > table.length >> 1) rehash(table.length << 1);
+				return true;
+			}
+		}
+	}
+
+	public void addAll(IntHashSet set) {
+		int minCapacity = (size + set.size) << 1;
+		if (minCapacity > table.length) rehash(Integer.highestOneBit(minCapacity - 1) << 1);
+		for (int value : set.table) {
+			if (value != 0) add(value);
+		}
+	}
+
+	// Counts the values of this set that are missing from the given set, stopping as soon as the count exceeds limit.
+	public int countMissingFrom(IntHashSet set, int limit) {
+		int count = 0;
+		for (int value : table) {
+			if (value != 0 && !set.contains(value) && ++count > limit) break;
+		}
+		return count;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldTable = table;
+		table = new int[capacity];
+		int mask = capacity - 1;
+		for (int value : oldTable) {
+			if (value != 0) {
+				int i = hash(value) & mask;
+				while (table[i] != 0) i = (i + 1) & mask;
+				table[i] = value;
+			}
+		}
+	}
+
+	private static int hash(int value) {
+		int h = value * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.iface.MultiDexContainer.DexEntry;
+
+public abstract class LazyDexEntry<C extends MultiDexContainer< /* ? extends */ D>, D extends DexFile>
+		implements DexEntry<D> {
+
+	private final C container;
+	private final String entryName;
+	private volatile D dexFile;
+	private volatile long loadNanos = -1;
+
+	public LazyDexEntry(C container, String entryName) {
+		this.container = container;
+		this.entryName = entryName;
+	}
+
+	@Override
+	public String getEntryName() {
+		return entryName;
+	}
+
+	@Override
+	public C getContainer() {
+		return container;
+	}
+
+	@Override
+	public D getDexFile() {
+		try {
+			return load();
+		} catch (IOException e) {
+			// DexEntry.getDexFile() cannot throw checked exceptions.
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+
+	public D load() throws IOException {
+		D result = dexFile;
+		if (result == null) {
+			synchronized (this) {
+				result = dexFile;
+				if (result == null) {
+					long startTime = System.nanoTime();
+					result = loadDexFile();
+					if (result == null) throw new NullPointerException("dexFile");
+					loadNanos = System.nanoTime() - startTime;
+					dexFile = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	public boolean isLoaded() {
+		return dexFile != null;
+	}
+
+	// Drops the loaded dex file so that it can be garbage collected. It is reloaded on next access.
+	public void unload() {
+		synchronized (this) {
+			dexFile = null;
+		}
+	}
+
+	// The time taken to read and parse the dex file, or -1 if not loaded.
+	public long getLoadNanos() {
+		return loadNanos;
+	}
+
+	protected abstract D loadDexFile() throws IOException;
+
+}
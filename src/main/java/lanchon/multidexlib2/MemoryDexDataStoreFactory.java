@@ -0,0 +1,65 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.jf.dexlib2.writer.io.DexDataStore;
+
+public class MemoryDexDataStoreFactory implements DexDataStoreFactory {
+
+	private final DexBufferPool bufferPool;
+	private final SortedMap<String, PooledMemoryDataStore> dataStoreMap;
+
+	public MemoryDexDataStoreFactory(DexFileNamer namer) {
+		this(namer, new DexBufferPool());
+	}
+
+	public MemoryDexDataStoreFactory(DexFileNamer namer, DexBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		dataStoreMap = new TreeMap<>(new DexFileNameComparator(namer));
+	}
+
+	@Override
+	public DexDataStore getDataStore(String name) {
+		PooledMemoryDataStore dataStore = new PooledMemoryDataStore(bufferPool);
+		synchronized (dataStoreMap) {
+			if (dataStoreMap.containsKey(name)) {
+				dataStore.release();
+				throw new DuplicateEntryNameException(name);
+			}
+			dataStoreMap.put(name, dataStore);
+		}
+		return dataStore;
+	}
+
+	public Map<String, PooledMemoryDataStore> getDataStores() {
+		synchronized (dataStoreMap) {
+			return Collections.unmodifiableMap(new TreeMap<>(dataStoreMap));
+		}
+	}
+
+	public void release() {
+		// Return all buffers to the pool so that the next write can reuse them.
+		synchronized (dataStoreMap) {
+			for (PooledMemoryDataStore dataStore : dataStoreMap.values()) dataStore.release();
+			dataStoreMap.clear();
+		}
+	}
+
+	public DexBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+}
@@ -11,11 +11,15 @@
 package lanchon.multidexlib2;
 
 import java.io.IOException;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.AbstractSet;
 import java.util.Collections;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
+import com.google.common.collect.Iterators;
+import com.google.common.collect.UnmodifiableIterator;
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.iface.ClassDef;
 import org.jf.dexlib2.iface.DexFile;
@@ -23,41 +27,149 @@ import org.jf.dexlib2.iface.MultiDexContainer;
 
 public class MultiDexContainerBackedDexFile<T extends DexFile> implements DexFile {
 
+	public enum DuplicateTypeCheck {
+		EAGER,          // check during construction
+		DEFERRED,       // check on first access to the classes
+		NONE            // never check
+	}
+
+	private final MultiDexContainer<T> container;
+	private final List<String> entryNames;
+	private final int threadCount;
 	private final Set<? extends ClassDef> classes;
-	private final Opcodes opcodes;
+	private volatile Opcodes opcodes;
+	private volatile boolean checkPending;
+	private volatile DexTypeIndex<T> typeIndex;
 
 	public MultiDexContainerBackedDexFile(MultiDexContainer<T> container) throws IOException {
-		List<String> entryNames = container.getDexEntryNames();
+		this(container, DuplicateTypeCheck.EAGER, 1);
+	}
+
+	public MultiDexContainerBackedDexFile(MultiDexContainer<T> container, DuplicateTypeCheck duplicateTypeCheck,
+			int threadCount) throws IOException {
+		this.container = container;
+		entryNames = container.getDexEntryNames();
+		this.threadCount = threadCount;
 		if (entryNames.size() == 1) {
-			String entryName = entryNames.get(0);
-			//noinspection ConstantConditions
-			T entryDex = container.getEntry(entryName).getDexFile();
+			T entryDex = getEntryDexFile(0);
 			classes = Collections.unmodifiableSet(entryDex.getClasses());
 			opcodes = entryDex.getOpcodes();
 		} else {
-			LinkedHashSet<ClassDef> accumulatedClasses = new LinkedHashSet<>();
-			Opcodes resolvedOpcodes = null;
-			for (String entryName : entryNames) {
-				//noinspection ConstantConditions
-				T entryDex = container.getEntry(entryName).getDexFile();
-				for (ClassDef entryClass : entryDex.getClasses()) {
-					if (!accumulatedClasses.add(entryClass)) throw new DuplicateTypeException(entryClass.getType());
-				}
-				resolvedOpcodes = OpcodeUtils.getNewestOpcodes(resolvedOpcodes, entryDex.getOpcodes(), true);
+			// A view of the classes of all entries in entry order, which avoids copying them into a new set.
+			classes = new UnionClassSet();
+			switch (duplicateTypeCheck) {
+				case EAGER:
+					getTypeIndex();
+					break;
+				case DEFERRED:
+					checkPending = true;
+					break;
 			}
-			classes = Collections.unmodifiableSet(accumulatedClasses);
-			opcodes = resolvedOpcodes;
 		}
 	}
 
 	@Override
 	public Set<? extends ClassDef> getClasses() {
+		if (checkPending) {
+			synchronized (this) {
+				if (checkPending) {
+					try {
+						getTypeIndex();
+					} catch (IOException e) {
+						throw new UndeclaredThrowableException(e);
+					}
+					checkPending = false;
+				}
+			}
+		}
 		return classes;
 	}
 
 	@Override
 	public Opcodes getOpcodes() {
-		return opcodes;
+		Opcodes resolvedOpcodes = opcodes;
+		if (resolvedOpcodes == null) {
+			for (int i = 0; i < entryNames.size(); i++) {
+				resolvedOpcodes = OpcodeUtils.getNewestOpcodes(resolvedOpcodes, getEntryDexFileUnchecked(i)
+						.getOpcodes(), true);
+			}
+			opcodes = resolvedOpcodes;
+		}
+		return resolvedOpcodes;
+	}
+
+	private T getEntryDexFile(int index) throws IOException {
+		String entryName = entryNames.get(index);
+		MultiDexContainer.DexEntry<T> entry = container.getEntry(entryName);
+		if (entry == null) throw new IOException("Missing dex entry: " + entryName);
+		//noinspection ConstantConditions
+		return entry.getDexFile();
+	}
+
+	private T getEntryDexFileUnchecked(int index) {
+		try {
+			return getEntryDexFile(index);
+		} catch (IOException e) {
+			throw new UndeclaredThrowableException(e);
+		}
+	}
+
+	// Returns the type index, building it if needed. Building the index also checks for duplicate types.
+	public DexTypeIndex<T> getTypeIndex() throws IOException {
+		DexTypeIndex<T> index = typeIndex;
+		if (index == null) {
+			synchronized (this) {
+				index = typeIndex;
+				if (index == null) {
+					index = DexTypeIndex.build(container, threadCount);
+					typeIndex = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	private class UnionClassSet extends AbstractSet<ClassDef> {
+
+		private volatile int size = -1;
+
+		@Override
+		public Iterator<ClassDef> iterator() {
+			return Iterators.unmodifiableIterator(Iterators.concat(new UnmodifiableIterator<Iterator<ClassDef>>() {
+				private int index;
+				@Override
+				public boolean hasNext() {
+					return index < entryNames.size();
+				}
+				@Override
+				public Iterator<ClassDef> next() {
+					// Entries are loaded only as the iteration reaches them.
+					Set<? extends ClassDef> entryClasses = getEntryDexFileUnchecked(index++).getClasses();
+					return Iterators.unmodifiableIterator(entryClasses.iterator());
+				}
+			}));
+		}
+
+		@Override
+		public int size() {
+			int resolvedSize = size;
+			if (resolvedSize < 0) {
+				resolvedSize = 0;
+				for (int i = 0; i < entryNames.size(); i++) {
+					resolvedSize += getEntryDexFileUnchecked(i).getClasses().size();
+				}
+				size = resolvedSize;
+			}
+			return resolvedSize;
+		}
+
+		@Override
+		public boolean contains(Object o) {
+			DexTypeIndex<T> index = typeIndex;
+			if (index != null && o instanceof ClassDef) return index.contains(((ClassDef) o).getType());
+			return super.contains(o);
+		}
+
 	}
 
 }
@@ -14,6 +14,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.dexbacked.DexBackedDexFile;
@@ -23,58 +27,190 @@ import org.jf.dexlib2.iface.MultiDexContainer;
 public class MultiDexIO {
 
 	public static final int DEFAULT_MAX_THREADS = 4;
+	public static final int DEFAULT_STREAM_QUEUE_CAPACITY = 1000;
 
 	private MultiDexIO() {}
 
 	// Read
 
-	public static DexFile readDexFile(boolean multiDex, File file, DexFileNamer namer, Opcodes opcodes,
-			DexIO.Logger logger) throws IOException {
-		MultiDexContainer<DexBackedDexFile> container = readMultiDexContainer(multiDex, file, namer, opcodes, logger);
-		return new MultiDexContainerBackedDexFile<>(container);
+	// The positional overloads of the reads are deprecated in favor of the overloads that take DexReadOptions.
+
+	public static DexFile readDexFile(boolean multiDex, File file, DexFileNamer namer, DexReadOptions options)
+			throws IOException {
+		int threadCount = ThreadUtils.resolveThreadCount(options.getThreadCount(), DEFAULT_MAX_THREADS);
+		MultiDexContainer<DexBackedDexFile> container = readMultiDexContainer(multiDex, file, namer, options);
+		return new MultiDexContainerBackedDexFile<>(container, options.getDuplicateTypeCheck(), threadCount);
 	}
 
 	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(boolean multiDex, File file,
-			DexFileNamer namer, Opcodes opcodes, DexIO.Logger logger) throws IOException {
-		MultiDexContainer<DexBackedDexFile> container = readMultiDexContainer(file, namer, opcodes, logger);
+			DexFileNamer namer, DexReadOptions options) throws IOException {
+		MultiDexContainer<DexBackedDexFile> container = readMultiDexContainer(file, namer, options);
+		checkMultiDexContainer(multiDex, file, container);
+		return container;
+	}
+
+	static void checkMultiDexContainer(boolean multiDex, File file, MultiDexContainer<?> container)
+			throws IOException {
 		int entries = container.getDexEntryNames().size();
 		if (entries == 0) throw new EmptyMultiDexContainerException(file.toString());
 		if (!multiDex && entries > 1) throw new MultiDexDetectedException(file.toString());
-		return container;
 	}
 
 	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(File file, DexFileNamer namer,
-			Opcodes opcodes, DexIO.Logger logger) throws IOException {
-		MultiDexContainer<DexBackedDexFile> container = readMultiDexContainer(file, namer, opcodes);
+			DexReadOptions options) throws IOException {
+		DexIO.Logger logger = options.isLazy() ? null : options.getLogger();
+		DexIO.Listener listener = DexIO.getListener(logger);
+		long startTime = listener != null ? System.nanoTime() : 0;
+		MultiDexContainer<DexBackedDexFile> container = openMultiDexContainer(file, namer, options);
+		long readNanos = listener != null ? System.nanoTime() - startTime : 0;
 		if (logger != null) {
 			for (String name : container.getDexEntryNames()) {
+				MultiDexContainer.DexEntry<? extends DexBackedDexFile> entry = container.getEntry(name);
 				//noinspection ConstantConditions
-				logger.log(file, name, container.getEntry(name).getDexFile().getClasses().size());
+				DexBackedDexFile dexFile = entry.getDexFile();
+				int classCount = dexFile.getClasses().size();
+				logger.log(file, name, classCount);
+				if (listener != null) {
+					long loadNanos = entry instanceof LazyDexEntry ? ((LazyDexEntry<?, ?>) entry).getLoadNanos() :
+							container instanceof SingletonDexContainer ? readNanos : -1;
+					listener.onDexRead(new DexReadMetrics(file, name, dexFile.getBuffer().getBuf().length,
+							classCount, loadNanos));
+				}
 			}
 		}
 		return container;
 	}
 
-	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(File file, DexFileNamer namer,
-			Opcodes opcodes) throws IOException {
-		if (file.isDirectory()) return new DirectoryDexContainer(file, namer, opcodes);
+	private static MultiDexContainer<DexBackedDexFile> openMultiDexContainer(File file, DexFileNamer namer,
+			DexReadOptions options) throws IOException {
+		Opcodes opcodes = options.getOpcodes();
+		if (file.isDirectory()) {
+			if (options.isLazy()) return new DirectoryDexContainer(file, namer, opcodes, true);
+			int threadCount = ThreadUtils.resolveThreadCount(options.getThreadCount(), DEFAULT_MAX_THREADS);
+			return new DirectoryDexContainer(file, namer, opcodes, threadCount);
+		}
 		if (!file.isFile()) throw new FileNotFoundException(file.toString());
-		if (ZipFileDexContainer.isZipFile(file)) return new ZipFileDexContainer(file, namer, opcodes);
+		if (ContainerFormat.isZipFile(file)) {
+			if (options.isLazy()) return new ZipFileDexContainer(file, namer, opcodes, true);
+			int threadCount = ThreadUtils.resolveThreadCount(options.getThreadCount(), DEFAULT_MAX_THREADS);
+			return new ZipFileDexContainer(file, namer, opcodes, threadCount);
+		}
 		return new SingletonDexContainer<>(RawDexIO.readRawDexFile(file, opcodes));
 	}
 
+	@Deprecated
+	public static DexFile readDexFile(boolean multiDex, File file, DexFileNamer namer, Opcodes opcodes,
+			DexIO.Logger logger) throws IOException {
+		return readDexFile(multiDex, 1, file, namer, opcodes, logger);
+	}
+
+	@Deprecated
+	public static DexFile readDexFile(boolean multiDex, int threadCount, File file, DexFileNamer namer,
+			Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readDexFile(multiDex, threadCount, file, namer, opcodes,
+				MultiDexContainerBackedDexFile.DuplicateTypeCheck.EAGER, logger);
+	}
+
+	@Deprecated
+	public static DexFile readDexFile(boolean multiDex, int threadCount, File file, DexFileNamer namer,
+			Opcodes opcodes, MultiDexContainerBackedDexFile.DuplicateTypeCheck duplicateTypeCheck,
+			DexIO.Logger logger) throws IOException {
+		return readDexFile(multiDex, file, namer, DexReadOptions.builder().setThreadCount(threadCount)
+				.setOpcodes(opcodes).setDuplicateTypeCheck(duplicateTypeCheck).setLogger(logger).build());
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(boolean multiDex, File file,
+			DexFileNamer namer, Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readMultiDexContainer(multiDex, 1, file, namer, opcodes, logger);
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(boolean multiDex, int threadCount,
+			File file, DexFileNamer namer, Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readMultiDexContainer(multiDex, file, namer, getOptions(threadCount, opcodes, false, logger));
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(File file, DexFileNamer namer,
+			Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readMultiDexContainer(1, file, namer, opcodes, logger);
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(int threadCount, File file,
+			DexFileNamer namer, Opcodes opcodes, DexIO.Logger logger) throws IOException {
+		return readMultiDexContainer(file, namer, getOptions(threadCount, opcodes, false, logger));
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(File file, DexFileNamer namer,
+			Opcodes opcodes) throws IOException {
+		return readMultiDexContainer(1, file, namer, opcodes);
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(int threadCount, File file,
+			DexFileNamer namer, Opcodes opcodes) throws IOException {
+		return readMultiDexContainer(file, namer, getOptions(threadCount, opcodes, false, null));
+	}
+
+	@Deprecated
+	public static MultiDexContainer<DexBackedDexFile> readMultiDexContainer(File file, DexFileNamer namer,
+			Opcodes opcodes, boolean lazy) throws IOException {
+		return readMultiDexContainer(file, namer, getOptions(1, opcodes, lazy, null));
+	}
+
+	private static DexReadOptions getOptions(int threadCount, Opcodes opcodes, boolean lazy, DexIO.Logger logger) {
+		return DexReadOptions.builder().setThreadCount(threadCount).setOpcodes(opcodes).setLazy(lazy)
+				.setLogger(logger).build();
+	}
+
+	// Probe
+
+	public static List<DexHeaderInfo> probeMultiDexContainer(boolean multiDex, File file, DexFileNamer namer)
+			throws IOException {
+		List<DexHeaderInfo> infos = probeMultiDexContainer(file, namer);
+		if (infos.isEmpty()) throw new EmptyMultiDexContainerException(file.toString());
+		if (!multiDex && infos.size() > 1) throw new MultiDexDetectedException(file.toString());
+		return infos;
+	}
+
+	// Reads only the header and map list of each dex file of the container.
+	public static List<DexHeaderInfo> probeMultiDexContainer(File file, DexFileNamer namer) throws IOException {
+		return DexHeaderReader.probe(file, namer);
+	}
+
 	// Write
 
+	// The positional overloads of the writes are deprecated in favor of the overloads that take DexWriteOptions.
+
+	public static int writeDexFile(boolean multiDex, File file, DexFileNamer namer, DexFile dexFile,
+			DexWriteOptions options) throws IOException {
+		if (file.isDirectory()) {
+			return writeMultiDexDirectory(multiDex, file, namer, dexFile, options);
+		} else if (multiDex) {
+			checkZipOutput(file, options);
+			return writeMultiDexZipFile(multiDex, file, namer, true, dexFile, options);
+		} else {
+			RawDexIO.writeRawDexFile(file, dexFile, options.getMaxDexPoolSize(), options.getLogger());
+			return 1;
+		}
+	}
+
+	@Deprecated
 	public static int writeDexFile(boolean multiDex, File file, DexFileNamer namer, DexFile dexFile,
 			int maxDexPoolSize, DexIO.Logger logger) throws IOException {
 		return writeDexFile(multiDex, 1, file, namer, dexFile, maxDexPoolSize, logger);
 	}
 
+	@Deprecated
 	public static int writeDexFile(boolean multiDex, int threadCount, File file, DexFileNamer namer, DexFile dexFile,
 			int maxDexPoolSize, DexIO.Logger logger) throws IOException {
 		return writeDexFile(multiDex, threadCount, file, namer, dexFile, 0, false, maxDexPoolSize, logger);
 	}
 
+	@Deprecated
 	public static int writeDexFile(boolean multiDex, File file, DexFileNamer namer, DexFile dexFile,
 			int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize,
 			DexIO.Logger logger) throws IOException {
@@ -82,41 +218,305 @@ public class MultiDexIO {
 				logger);
 	}
 
+	@Deprecated
 	public static int writeDexFile(boolean multiDex, int threadCount, File file, DexFileNamer namer, DexFile dexFile,
 			int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize,
 			DexIO.Logger logger) throws IOException {
-		if (file.isDirectory()) {
-			return writeMultiDexDirectory(multiDex, threadCount, file, namer, dexFile, minMainDexClassCount,
-					minimalMainDex, maxDexPoolSize, logger);
-		} else {
-			if (multiDex) throw new UnsupportedOperationException(
-					"Must output to a directory if multi-dex mode is enabled");
-			RawDexIO.writeRawDexFile(file, dexFile, maxDexPoolSize, logger);
-			return 1;
-		}
+		return writeDexFile(multiDex, file, namer, dexFile, getOptions(threadCount, null, minMainDexClassCount,
+				minimalMainDex, maxDexPoolSize, logger));
 	}
 
+	@Deprecated
 	public static int writeMultiDexDirectory(boolean multiDex, int threadCount, File directory, DexFileNamer namer,
 			DexFile dexFile, int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger)
 			throws IOException {
+		return writeMultiDexDirectory(multiDex, threadCount, directory, namer, dexFile, null, minMainDexClassCount,
+				minimalMainDex, maxDexPoolSize, logger);
+	}
+
+	@Deprecated
+	public static int writeMultiDexDirectory(boolean multiDex, int threadCount, File directory, DexFileNamer namer,
+			DexFile dexFile, ClassPartitioner partitioner, int minMainDexClassCount, boolean minimalMainDex,
+			int maxDexPoolSize, DexIO.Logger logger) throws IOException {
+		return writeMultiDexDirectory(multiDex, directory, namer, dexFile, getOptions(threadCount, partitioner,
+				minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger));
+	}
+
+	public static int writeMultiDexDirectory(boolean multiDex, File directory, DexFileNamer namer, DexFile dexFile,
+			DexWriteOptions options) throws IOException {
 		purgeMultiDexDirectory(multiDex, directory, namer);
-		DexFileNameIterator nameIterator = new DexFileNameIterator(namer);
-		if (threadCount <= 0) {
-			threadCount = Runtime.getRuntime().availableProcessors();
-			if (threadCount > DEFAULT_MAX_THREADS) threadCount = DEFAULT_MAX_THREADS;
+		DexManifest.delete(directory);
+		return writeMultiDex(multiDex, new DirectoryDexDataStoreFactory(directory), namer, dexFile, options,
+				directory);
+	}
+
+	// Runs the whole write as a task of the executor of the options, which also runs its worker tasks.
+	public static Future<Integer> writeMultiDexDirectoryAsync(final boolean multiDex, final File directory,
+			final DexFileNamer namer, final DexFile dexFile, final DexWriteOptions options) {
+		//noinspection Convert2Lambda
+		return getExecutor(options).submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				return writeMultiDexDirectory(multiDex, directory, namer, dexFile, options);
+			}
+		});
+	}
+
+	// Writes to a staging directory that then replaces the output directory, so that readers never see a partial
+	// output and no dex files need to be purged beforehand.
+	public static int writeMultiDexDirectoryStaged(boolean multiDex, File directory, DexFileNamer namer,
+			DexFile dexFile, DexWriteOptions options) throws IOException {
+		if (!multiDex && directory.isDirectory()) {
+			List<String> names = DirectoryDexContainer.listDexFileNames(directory, namer);
+			if (names.size() > 1) throw new MultiDexDetectedException(directory.toString());
+		}
+		File stagingDirectory = DirectoryStaging.create(directory);
+		boolean done = false;
+		try {
+			int count = writeMultiDex(multiDex, new DirectoryDexDataStoreFactory(stagingDirectory), namer, dexFile,
+					options, directory);
+			DirectoryStaging.commit(stagingDirectory, directory, namer);
+			done = true;
+			return count;
+		} finally {
+			if (!done) DirectoryStaging.discard(stagingDirectory, namer);
+		}
+	}
+
+	@Deprecated
+	public static int writeMultiDexDirectoryIncremental(boolean multiDex, int threadCount, File directory,
+			DexFileNamer namer, DexFile dexFile, ClassPartitioner partitioner, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger) throws IOException {
+		return writeMultiDexDirectoryIncremental(multiDex, directory, namer, dexFile, getOptions(threadCount,
+				partitioner, minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger));
+	}
+
+	public static int writeMultiDexDirectoryIncremental(boolean multiDex, File directory, DexFileNamer namer,
+			DexFile dexFile, DexWriteOptions options) throws IOException {
+		if (!multiDex || options.getMinMainDexClassCount() != 0 || options.isMinimalMainDex()) {
+			// The content of the main dex file is constrained: rewrite all dex files.
+			return writeMultiDexDirectory(multiDex, directory, namer, dexFile, options);
+		}
+		return IncrementalDexWriter.write(directory, namer, dexFile, options);
+	}
+
+	@Deprecated
+	public static int writeMultiDexZipFile(boolean multiDex, int threadCount, File zip, DexFileNamer namer,
+			boolean compressed, DexFile dexFile, int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize,
+			DexIO.Logger logger) throws IOException {
+		return writeMultiDexZipFile(multiDex, threadCount, zip, namer, compressed, dexFile, null,
+				minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger);
+	}
+
+	@Deprecated
+	public static int writeMultiDexZipFile(boolean multiDex, int threadCount, File zip, DexFileNamer namer,
+			boolean compressed, DexFile dexFile, ClassPartitioner partitioner, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger) throws IOException {
+		return writeMultiDexZipFile(multiDex, zip, namer, compressed, dexFile, getOptions(threadCount, partitioner,
+				minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger));
+	}
+
+	// Multi-dex outputs that are not directories are only written as zip files if asked for, either explicitly or
+	// by the name of the file.
+	private static void checkZipOutput(File file, DexWriteOptions options) {
+		if (!options.isZipOutput() && !ContainerFormat.hasZipExtension(file)) {
+			throw new UnsupportedOperationException(
+					"Must output to a directory or to a zip, apk or jar file if multi-dex mode is enabled");
 		}
-		if (threadCount > 1 && multiDex && minMainDexClassCount == 0 && !minimalMainDex) {
-			DexIO.writeMultiDexDirectoryMultiThread(threadCount, directory, nameIterator, dexFile, maxDexPoolSize,
-					logger);
+	}
+
+	public static int writeMultiDexZipFile(boolean multiDex, File zip, DexFileNamer namer, boolean compressed,
+			DexFile dexFile, DexWriteOptions options) throws IOException {
+		ZipFileDexDataStoreFactory dataStoreFactory = new ZipFileDexDataStoreFactory(zip, namer, compressed);
+		try {
+			int count = writeMultiDex(multiDex, dataStoreFactory, namer, dexFile, options, zip);
+			dataStoreFactory.close();
+			return count;
+		} finally {
+			// No-op once closed.
+			dataStoreFactory.discard();
+		}
+	}
+
+	// Runs the whole write as a task of the executor of the options, which also runs its worker tasks.
+	public static Future<Integer> writeMultiDexZipFileAsync(final boolean multiDex, final File zip,
+			final DexFileNamer namer, final boolean compressed, final DexFile dexFile, final DexWriteOptions options) {
+		//noinspection Convert2Lambda
+		return getExecutor(options).submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				return writeMultiDexZipFile(multiDex, zip, namer, compressed, dexFile, options);
+			}
+		});
+	}
+
+	@Deprecated
+	public static int writeMultiDex(boolean multiDex, int threadCount, DexDataStoreFactory dataStoreFactory,
+			DexFileNamer namer, DexFile dexFile, int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize,
+			DexIO.Logger logger) throws IOException {
+		return writeMultiDex(multiDex, threadCount, dataStoreFactory, namer, dexFile, null, minMainDexClassCount,
+				minimalMainDex, maxDexPoolSize, logger);
+	}
+
+	@Deprecated
+	public static int writeMultiDex(boolean multiDex, int threadCount, DexDataStoreFactory dataStoreFactory,
+			DexFileNamer namer, DexFile dexFile, ClassPartitioner partitioner, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger) throws IOException {
+		return writeMultiDex(multiDex, dataStoreFactory, namer, dexFile, getOptions(threadCount, partitioner,
+				minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger));
+	}
+
+	public static int writeMultiDex(boolean multiDex, DexDataStoreFactory dataStoreFactory, DexFileNamer namer,
+			DexFile dexFile, DexWriteOptions options) throws IOException {
+		return writeMultiDex(multiDex, dataStoreFactory, namer, dexFile, options, null);
+	}
+
+	// Runs the whole write as a task of the executor of the options, which also runs its worker tasks.
+	public static Future<Integer> writeMultiDexAsync(final boolean multiDex,
+			final DexDataStoreFactory dataStoreFactory, final DexFileNamer namer, final DexFile dexFile,
+			final DexWriteOptions options) {
+		//noinspection Convert2Lambda
+		return getExecutor(options).submit(new Callable<Integer>() {
+			@Override
+			public Integer call() throws IOException {
+				return writeMultiDex(multiDex, dataStoreFactory, namer, dexFile, options);
+			}
+		});
+	}
+
+	static int writeMultiDex(boolean multiDex, DexDataStoreFactory dataStoreFactory, DexFileNamer namer,
+			DexFile dexFile, DexWriteOptions options, File file) throws IOException {
+		return writeMultiDex(multiDex, dataStoreFactory, namer, dexFile, options, file, null);
+	}
+
+	// If given, the placement map receives the types of the classes of each written dex file by name.
+	static int writeMultiDex(boolean multiDex, DexDataStoreFactory dataStoreFactory, DexFileNamer namer,
+			DexFile dexFile, DexWriteOptions options, File file, Map<String, List<String>> placement)
+			throws IOException {
+		DexFileNameIterator nameIterator = new DexFileNameIterator(namer);
+		int threadCount = ThreadUtils.resolveThreadCount(options.getThreadCount(), DEFAULT_MAX_THREADS);
+		if (threadCount > 1 && multiDex) {
+			DexIO.writeMultiDexMultiThread(threadCount, dataStoreFactory, nameIterator, dexFile, options, file,
+					placement);
 		} else {
-			DexIO.writeMultiDexDirectorySingleThread(multiDex, directory, nameIterator, dexFile, minMainDexClassCount,
-					minimalMainDex, maxDexPoolSize, logger);
+			DexIO.writeMultiDexSingleThread(multiDex, threadCount, dataStoreFactory, nameIterator, dexFile, options,
+					file, placement);
 		}
 		return nameIterator.getCount();
 	}
 
+	private static DexWriteOptions getOptions(int threadCount, ClassPartitioner partitioner,
+			int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger) {
+		return DexWriteOptions.builder().setThreadCount(threadCount).setPartitioner(partitioner)
+				.setMinMainDexClassCount(minMainDexClassCount).setMinimalMainDex(minimalMainDex)
+				.setMaxDexPoolSize(maxDexPoolSize).setLogger(logger).build();
+	}
+
+	private static ExecutorService getExecutor(DexWriteOptions options) {
+		ExecutorService executor = options.getExecutor();
+		if (executor == null) throw new IllegalArgumentException("Asynchronous writes require an executor");
+		return executor;
+	}
+
+	// Batch
+
+	public static List<DexBatchResult> processBatch(int threadCount, List<DexBatchJob> jobs, DexIO.Logger logger)
+			throws IOException {
+		threadCount = ThreadUtils.resolveThreadCount(threadCount, Integer.MAX_VALUE);
+		return processBatch(threadCount, threadCount, jobs, logger);
+	}
+
+	// Runs the jobs on a shared pool of threadCount threads, with at most maxActiveJobs inputs held in memory.
+	// Failures are reported in the results of the failed jobs and do not stop the batch.
+	public static List<DexBatchResult> processBatch(int threadCount, int maxActiveJobs, List<DexBatchJob> jobs,
+			DexIO.Logger logger) throws IOException {
+		threadCount = ThreadUtils.resolveThreadCount(threadCount, Integer.MAX_VALUE);
+		return BatchProcessor.run(threadCount, maxActiveJobs, jobs, logger);
+	}
+
+	// Runs the jobs on a client-provided executor that is not shut down. The thread count sets the number of
+	// write tasks each job is split into.
+	public static List<DexBatchResult> processBatch(ExecutorService executor, int threadCount, int maxActiveJobs,
+			List<DexBatchJob> jobs, DexIO.Logger logger) throws IOException {
+		threadCount = ThreadUtils.resolveThreadCount(threadCount, Integer.MAX_VALUE);
+		return BatchProcessor.run(executor, threadCount, maxActiveJobs, jobs, logger);
+	}
+
+	// Executors
+
+	public static boolean isVirtualThreadSupported() {
+		return ThreadUtils.isVirtualThreadSupported();
+	}
+
+	// Returns an executor that runs each task on a new virtual thread (Java 21 or later), for use as the
+	// executor of write options. Throws UnsupportedOperationException on earlier Java versions.
+	public static ExecutorService newVirtualThreadExecutor() {
+		return ThreadUtils.newVirtualThreadExecutor();
+	}
+
+	// Stream
+
+	@Deprecated
+	public static int transformDexFile(int threadCount, File inputFile, DexFileNamer inputNamer, Opcodes opcodes,
+			ClassTransformer transformer, File outputFile, DexFileNamer outputNamer, int queueCapacity,
+			int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize, DexIO.Logger logger)
+			throws IOException {
+		return transformDexFile(inputFile, inputNamer, opcodes, transformer, outputFile, outputNamer, queueCapacity,
+				getOptions(threadCount, null, minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger));
+	}
+
+	// Streaming writes fill dex files as classes arrive and ignore the partitioner of the options.
+	public static int transformDexFile(File inputFile, DexFileNamer inputNamer, Opcodes opcodes,
+			ClassTransformer transformer, File outputFile, DexFileNamer outputNamer, int queueCapacity,
+			DexWriteOptions options) throws IOException {
+		if (inputFile.getCanonicalFile().equals(outputFile.getCanonicalFile())) {
+			throw new IllegalArgumentException("Input and output must differ: " + outputFile);
+		}
+		MultiDexContainer<DexBackedDexFile> source = readMultiDexContainer(inputFile, inputNamer,
+				DexReadOptions.builder().setOpcodes(opcodes).setLazy(true).build());
+		// The output opcodes come from the dex headers, so that entries are not loaded ahead of streaming.
+		Opcodes outputOpcodes = opcodes;
+		if (outputOpcodes == null) {
+			outputOpcodes = OpcodeUtils.getNewestOpcodes(DexHeaderReader.probe(inputFile, inputNamer));
+		}
+		if (outputFile.isDirectory()) {
+			purgeMultiDexDirectory(true, outputFile, outputNamer);
+			DexManifest.delete(outputFile);
+			return StreamingDexWriter.write(source, transformer, new DirectoryDexDataStoreFactory(outputFile),
+					outputNamer, outputOpcodes, queueCapacity, options, outputFile);
+		}
+		checkZipOutput(outputFile, options);
+		ZipFileDexDataStoreFactory dataStoreFactory = new ZipFileDexDataStoreFactory(outputFile, outputNamer, true);
+		try {
+			int count = StreamingDexWriter.write(source, transformer, dataStoreFactory, outputNamer, outputOpcodes,
+					queueCapacity, options, outputFile);
+			dataStoreFactory.close();
+			return count;
+		} finally {
+			dataStoreFactory.discard();
+		}
+	}
+
+	@Deprecated
+	public static int transformMultiDex(int threadCount, MultiDexContainer<? extends DexFile> source,
+			ClassTransformer transformer, DexDataStoreFactory dataStoreFactory, DexFileNamer namer, Opcodes opcodes,
+			int queueCapacity, int minMainDexClassCount, boolean minimalMainDex, int maxDexPoolSize,
+			DexIO.Logger logger) throws IOException {
+		return transformMultiDex(source, transformer, dataStoreFactory, namer, opcodes, queueCapacity,
+				getOptions(threadCount, null, minMainDexClassCount, minimalMainDex, maxDexPoolSize, logger));
+	}
+
+	// Streaming writes fill dex files as classes arrive and ignore the partitioner of the options.
+	public static int transformMultiDex(MultiDexContainer<? extends DexFile> source, ClassTransformer transformer,
+			DexDataStoreFactory dataStoreFactory, DexFileNamer namer, Opcodes opcodes, int queueCapacity,
+			DexWriteOptions options) throws IOException {
+		return StreamingDexWriter.write(source, transformer, dataStoreFactory, namer, opcodes, queueCapacity,
+				options, null);
+	}
+
 	public static void purgeMultiDexDirectory(boolean multiDex, File directory, DexFileNamer namer) throws IOException {
-		List<String> names = new DirectoryDexContainer(directory, namer, null).getDexEntryNames();
+		// Only the names of the existing dex files are needed; their content is never read.
+		List<String> names = DirectoryDexContainer.listDexFileNames(directory, namer);
 		if (!multiDex && names.size() > 1) throw new MultiDexDetectedException(directory.toString());
 		for (String name : names) {
 			File existingFile = new File(directory, name);
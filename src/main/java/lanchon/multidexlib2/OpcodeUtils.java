@@ -10,6 +10,8 @@
 
 package lanchon.multidexlib2;
 
+import java.util.List;
+
 import org.jf.dexlib2.Opcodes;
 import org.jf.dexlib2.VersionMap;
 
@@ -37,6 +39,15 @@ public class OpcodeUtils {
 		return o1.api >= o2.api ? o1 : o2;
 	}
 
+	// Returns the newest opcodes among the dex versions of the headers, or null if there are no headers.
+	public static Opcodes getNewestOpcodes(List<DexHeaderInfo> headers) {
+		Opcodes opcodes = null;
+		for (DexHeaderInfo header : headers) {
+			opcodes = getNewestOpcodes(opcodes, getOpcodesFromDexVersion(header.getVersion()), true);
+		}
+		return opcodes;
+	}
+
 	/*
 	public static <T extends DexFile> Opcodes getNewestOpcodes(MultiDexContainer<T> container) throws IOException {
 		Opcodes opcodes = null;
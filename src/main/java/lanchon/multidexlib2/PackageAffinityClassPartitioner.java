@@ -0,0 +1,56 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Keeps the classes of each package together when possible to reduce cross-dex references.
+
+public class PackageAffinityClassPartitioner extends FootprintClassPartitioner {
+
+	@Override
+	void pack(List<Item> items, List<Bin> bins, int firstOpenBin, int maxDexPoolSize) {
+		// Sorting by package name also places related packages next to each other.
+		Map<String, List<Item>> packageMap = new TreeMap<>();
+		for (Item item : items) {
+			String packageName = getPackageName(item.classDef.getType());
+			List<Item> packageItems = packageMap.get(packageName);
+			if (packageItems == null) {
+				packageItems = new ArrayList<>();
+				packageMap.put(packageName, packageItems);
+			}
+			packageItems.add(item);
+		}
+		Bin bin = firstOpenBin < bins.size() ? bins.get(bins.size() - 1) : newBin(bins);
+		for (List<Item> packageItems : packageMap.values()) {
+			DexFootprint packageFootprint = new DexFootprint();
+			for (Item item : packageItems) packageFootprint.add(item.footprint);
+			if (!bin.fits(packageFootprint, maxDexPoolSize) && !bin.items.isEmpty() &&
+					new Bin().fits(packageFootprint, maxDexPoolSize)) {
+				// Move the whole package to a fresh dex file instead of splitting it.
+				bin = newBin(bins);
+			}
+			for (Item item : packageItems) {
+				if (!bin.fits(item.footprint, maxDexPoolSize) && !bin.items.isEmpty()) bin = newBin(bins);
+				bin.add(item);
+			}
+		}
+	}
+
+	private static String getPackageName(String type) {
+		int i = type.lastIndexOf('/');
+		return i < 0 ? "" : type.substring(0, i);
+	}
+
+}
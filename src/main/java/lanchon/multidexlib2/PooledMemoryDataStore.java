@@ -0,0 +1,99 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.jf.dexlib2.writer.io.DexDataStore;
+
+public class PooledMemoryDataStore implements DexDataStore {
+
+	private final DexBufferPool bufferPool;
+	private byte[] buffer;
+	private int size;
+
+	public PooledMemoryDataStore(DexBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+		buffer = bufferPool.acquire(0);
+	}
+
+	@Override
+	public OutputStream outputAt(final int offset) {
+		if (offset < 0) throw new IllegalArgumentException("offset");
+		return new OutputStream() {
+			private int position = offset;
+			@Override
+			public void write(int b) {
+				prepareWrite(position, 1);
+				buffer[position++] = (byte) b;
+			}
+			@Override
+			public void write(byte[] b, int off, int len) {
+				prepareWrite(position, len);
+				System.arraycopy(b, off, buffer, position, len);
+				position += len;
+			}
+		};
+	}
+
+	@Override
+	public InputStream readAt(int offset) {
+		if (offset < 0) throw new IllegalArgumentException("offset");
+		int start = Math.min(offset, size);
+		return new ByteArrayInputStream(getBuffer(), start, size - start);
+	}
+
+	@Override
+	public void close() throws IOException {}
+
+	public byte[] getBuffer() {
+		if (buffer == null) throw new IllegalStateException("Data store already released");
+		return buffer;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public byte[] getData() {
+		byte[] data = new byte[size];
+		System.arraycopy(getBuffer(), 0, data, 0, size);
+		return data;
+	}
+
+	public void writeTo(OutputStream outputStream) throws IOException {
+		outputStream.write(getBuffer(), 0, size);
+	}
+
+	public void release() {
+		if (buffer != null) {
+			bufferPool.release(buffer);
+			buffer = null;
+			size = 0;
+		}
+	}
+
+	private void prepareWrite(int position, int length) {
+		int end = position + length;
+		if (end < 0) throw new OutOfMemoryError("Dex buffer too big");
+		buffer = bufferPool.grow(getBuffer(), size, end);
+		if (end > size) {
+			// Pooled buffers are not clean: zero any gap left before the written range.
+			if (position > size) Arrays.fill(buffer, size, position, (byte) 0);
+			size = end;
+		}
+	}
+
+}
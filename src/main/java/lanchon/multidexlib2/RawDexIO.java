@@ -62,6 +62,11 @@ public class RawDexIO {
 		return new DexBackedDexFile(opcodes, buf, offset);
 	}
 
+	// Reads only the header and map list of the dex file.
+	public static DexHeaderInfo probeRawDexFile(File file) throws IOException {
+		return DexHeaderReader.probeFile(file, SingletonDexContainer.UNDEFINED_ENTRY_NAME, file);
+	}
+
 	// Write
 
 	public static void writeRawDexFile(File file, DexFile dexFile, int maxDexPoolSize, DexIO.Logger logger)
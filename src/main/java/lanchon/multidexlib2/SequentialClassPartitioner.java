@@ -0,0 +1,57 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jf.dexlib2.iface.ClassDef;
+
+// Fills dex files greedily in iteration order. By default the writer starts a new dex whenever the current one
+// overflows, discarding the partially interned class and interning it again. When predicting overflow, the dex file
+// boundaries are instead computed upfront from the class footprints, so that every class is interned only once.
+
+public class SequentialClassPartitioner extends FootprintClassPartitioner {
+
+	private final boolean predictOverflow;
+
+	public SequentialClassPartitioner() {
+		this(false);
+	}
+
+	public SequentialClassPartitioner(boolean predictOverflow) {
+		this.predictOverflow = predictOverflow;
+	}
+
+	@Override
+	public List<List<ClassDef>> partition(List<? extends ClassDef> classes, int minMainDexClassCount,
+			boolean minimalMainDex, int maxDexPoolSize) throws IOException {
+		if (!predictOverflow) return Collections.singletonList((List<ClassDef>) new ArrayList<ClassDef>(classes));
+		return super.partition(classes, minMainDexClassCount, minimalMainDex, maxDexPoolSize);
+	}
+
+	@Override
+	boolean usesFootprints() {
+		return predictOverflow;
+	}
+
+	@Override
+	void pack(List<Item> items, List<Bin> bins, int firstOpenBin, int maxDexPoolSize) {
+		Bin bin = firstOpenBin < bins.size() ? bins.get(bins.size() - 1) : newBin(bins);
+		for (Item item : items) {
+			if (!bin.fits(item.footprint, maxDexPoolSize) && !bin.items.isEmpty()) bin = newBin(bins);
+			bin.add(item);
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+// Locates the data of STORED zip entries by parsing the central directory and local headers, so that parts of
+// their content, such as dex headers, can be read straight from the archive without going through an inflater
+// stream. Zip64 archives and unexpected layouts yield no locations, making callers fall back to zip entry streams.
+
+class StoredZipEntries {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int MAX_COMMENT_SIZE = 0xffff;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int STORED = 0;
+	private static final long ZIP64_MARKER = 0xffffffffL;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Returns the local header offsets of the STORED entries, keyed by entry name.
+	public static Map<String, Long> findLocalHeaderOffsets(RandomAccessFile file) throws IOException {
+		Map<String, Long> offsets = new HashMap<>();
+		long fileSize = file.length();
+		int tailSize = (int) Math.min(fileSize, EOCD_SIZE + MAX_COMMENT_SIZE);
+		if (tailSize < EOCD_SIZE) return offsets;
+		ByteBuffer tail = read(file, fileSize - tailSize, tailSize);
+		int eocd = -1;
+		for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == EOCD_SIGNATURE && i + EOCD_SIZE + getShort(tail, i + 20) == tailSize) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0) return offsets;
+		long directorySize = getInt(tail, eocd + 12);
+		long directoryOffset = getInt(tail, eocd + 16);
+		if (directorySize == ZIP64_MARKER || directoryOffset == ZIP64_MARKER) return offsets;
+		// Archives with leading data (such as self-extracting archives) may have offsets relative to the archive.
+		long directoryPosition = fileSize - tailSize + eocd - directorySize;
+		long bias = directoryPosition - directoryOffset;
+		if (directoryPosition < 0 || bias < 0 || directorySize > Integer.MAX_VALUE) return offsets;
+		ByteBuffer directory = read(file, directoryPosition, (int) directorySize);
+		int position = 0;
+		while (position + CENTRAL_HEADER_SIZE <= directory.limit()) {
+			if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) break;
+			int method = getShort(directory, position + 10);
+			long compressedSize = getInt(directory, position + 20);
+			long size = getInt(directory, position + 24);
+			int nameSize = getShort(directory, position + 28);
+			int extraSize = getShort(directory, position + 30);
+			int commentSize = getShort(directory, position + 32);
+			long localHeaderOffset = getInt(directory, position + 42);
+			int nameStart = position + CENTRAL_HEADER_SIZE;
+			if (nameStart + nameSize > directory.limit()) break;
+			if (method == STORED && compressedSize == size && size != ZIP64_MARKER &&
+					localHeaderOffset != ZIP64_MARKER) {
+				String name = new String(directory.array(), nameStart, nameSize, UTF_8);
+				offsets.put(name, localHeaderOffset + bias);
+			}
+			position = nameStart + nameSize + extraSize + commentSize;
+		}
+		return offsets;
+	}
+
+	// Returns the offset of the data of an entry given its local header offset.
+	public static long getDataOffset(RandomAccessFile file, long localHeaderOffset) throws IOException {
+		ByteBuffer header = read(file, localHeaderOffset, LOCAL_HEADER_SIZE);
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) throw new IOException("Invalid zip local header");
+		return localHeaderOffset + LOCAL_HEADER_SIZE + getShort(header, 26) + getShort(header, 28);
+	}
+
+	static ByteBuffer read(RandomAccessFile file, long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(file.getChannel(), buffer, position);
+		buffer.flip();
+		return buffer;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, position);
+			if (count < 0) throw new EOFException();
+			position += count;
+		}
+	}
+
+	private static int getShort(ByteBuffer buffer, int index) {
+		return buffer.getShort(index) & 0xffff;
+	}
+
+	private static long getInt(ByteBuffer buffer, int index) {
+		return buffer.getInt(index) & 0xffffffffL;
+	}
+
+	private StoredZipEntries() {}
+
+}
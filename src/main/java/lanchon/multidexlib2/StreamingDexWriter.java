@@ -0,0 +1,310 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import com.google.common.collect.UnmodifiableIterator;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.iface.MultiDexContainer.DexEntry;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+
+// Streams the classes of a source container, entry by entry, through a bounded queue into the writers.
+// Queued classes are copied into immutable classes, which do not reference the buffer of their source entry, and
+// lazy source entries are unloaded as soon as all their classes have been queued. Memory use is thus bounded by the
+// entry being read, the queue capacity and the dex pools in progress instead of growing with the container size.
+// Without explicit opcodes, the output uses the newest opcodes of all source entries.
+// With an executor, the writers run on the executor while the producer runs on a thread of its own (see run()).
+
+class StreamingDexWriter {
+
+	public static int write(MultiDexContainer<? extends DexFile> source, ClassTransformer transformer,
+			DexDataStoreFactory dataStoreFactory, DexFileNamer namer, Opcodes opcodes, int queueCapacity,
+			DexWriteOptions options, File file) throws IOException {
+		if (queueCapacity < 1) throw new IllegalArgumentException("queueCapacity");
+		List<String> entryNames = source.getDexEntryNames();
+		if (entryNames.isEmpty()) throw new EmptyMultiDexContainerException(String.valueOf(file));
+		if (opcodes == null) opcodes = getNewestOpcodes(source, entryNames);
+		int minMainDexClassCount = options.getMinMainDexClassCount();
+		boolean minimalMainDex = options.isMinimalMainDex();
+		int threadCount = ThreadUtils.resolveThreadCount(options.getThreadCount(), MultiDexIO.DEFAULT_MAX_THREADS);
+		// Main dex management needs classes to be written in order by a single writer.
+		int writerCount = minMainDexClassCount != 0 || minimalMainDex ? 1 : threadCount;
+		ClassQueue queue = new ClassQueue(queueCapacity);
+		DexFileNameIterator nameIterator = new DexFileNameIterator(namer);
+		DexIO.WriteContext context = new DexIO.WriteContext(dataStoreFactory, nameIterator, opcodes, writerCount,
+				options, file);
+		boolean done = false;
+		try {
+			List<Callable<Void>> writers = new ArrayList<>(writerCount);
+			for (int i = 0; i < writerCount; i++) {
+				QueueIterator classIterator = new QueueIterator(queue);
+				writers.add(new Writer(queue, classIterator, DexIO.newWriterTask(context, classIterator,
+						minMainDexClassCount, minimalMainDex, null)));
+			}
+			run(new Producer(source, transformer, opcodes, queue), writers, options.getExecutor());
+			if (queue.isAborted()) throw ThreadUtils.interrupted(new InterruptedException());
+			if (nameIterator.getCount() == 0) {
+				// All classes were dropped: write an empty dex file.
+				try {
+					DexIO.newWriterTask(context, Iterators.peekingIterator(Collections.<ClassDef>emptyIterator()),
+							0, false, null).call();
+				} catch (Exception e) {
+					throw ThreadUtils.rethrow(e);
+				}
+			}
+			done = true;
+		} finally {
+			context.finish(done);
+		}
+		return nameIterator.getCount();
+	}
+
+	// Lazy entries that are not loaded are loaded only to get their opcodes and then unloaded again. Clients that
+	// stream files avoid this by taking the opcodes from the dex headers (see MultiDexIO.transformDexFile()).
+	private static Opcodes getNewestOpcodes(MultiDexContainer<? extends DexFile> source, List<String> entryNames)
+			throws IOException {
+		Opcodes opcodes = null;
+		for (String entryName : entryNames) {
+			DexEntry<? extends DexFile> entry = source.getEntry(entryName);
+			if (entry == null) throw new IOException("Missing dex entry: " + entryName);
+			boolean unload = entry instanceof LazyDexEntry && !((LazyDexEntry<?, ?>) entry).isLoaded();
+			//noinspection ConstantConditions
+			opcodes = OpcodeUtils.getNewestOpcodes(opcodes, entry.getDexFile().getOpcodes(), true);
+			if (unload) ((LazyDexEntry<?, ?>) entry).unload();
+		}
+		return opcodes;
+	}
+
+	// The producer always runs concurrently with the writers. Its failure takes precedence over those of the
+	// writers, which it causes.
+	private static void run(Producer producer, List<Callable<Void>> writers, ExecutorService executor)
+			throws IOException {
+		if (executor == null) {
+			List<Callable<Void>> callables = new ArrayList<>(writers.size() + 1);
+			callables.add(producer);
+			callables.addAll(writers);
+			ThreadUtils.invokeAll(callables.size(), callables);
+			return;
+		}
+		// The producer cannot be a task of the executor: writers block on the queue until the producer fills it,
+		// so a producer queued behind them on a saturated executor would never start. Neither can the calling
+		// thread produce, as it runs any writer the executor has not started. A thread of its own is thus needed.
+		FutureTask<Void> producerTask = new FutureTask<>(producer);
+		Thread producerThread = new Thread(producerTask, "multidexlib2-stream-producer");
+		producerThread.setDaemon(true);
+		producerThread.start();
+		try {
+			ThreadUtils.invokeAll(executor, writers);
+		} finally {
+			try {
+				producerTask.get();
+			} catch (ExecutionException e) {
+				//noinspection ThrowFromFinallyBlock
+				throw ThreadUtils.rethrow(e.getCause());
+			} catch (InterruptedException e) {
+				//noinspection ThrowFromFinallyBlock
+				throw ThreadUtils.interrupted(e);
+			}
+		}
+	}
+
+	private static class Producer implements Callable<Void> {
+
+		private final MultiDexContainer<? extends DexFile> source;
+		private final ClassTransformer transformer;
+		private final Opcodes opcodes;
+		private final ClassQueue queue;
+
+		public Producer(MultiDexContainer<? extends DexFile> source, ClassTransformer transformer,
+				Opcodes opcodes, ClassQueue queue) {
+			this.source = source;
+			this.transformer = transformer;
+			this.opcodes = opcodes;
+			this.queue = queue;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			boolean done = false;
+			try {
+				Set<String> types = new HashSet<>();
+				for (String entryName : source.getDexEntryNames()) {
+					DexEntry<? extends DexFile> entry = source.getEntry(entryName);
+					//noinspection ConstantConditions
+					DexFile dexFile = entry.getDexFile();
+					if (dexFile.getOpcodes().api > opcodes.api) throw new IllegalArgumentException(
+							"Dex entry '" + entryName + "' requires newer opcodes than the output");
+					for (ClassDef classDef : dexFile.getClasses()) {
+						if (transformer != null) {
+							classDef = transformer.transform(classDef);
+							if (classDef == null) continue;
+						}
+						if (!types.add(classDef.getType())) throw new DuplicateTypeException(classDef.getType());
+						if (!queue.put(ImmutableClassDef.of(classDef))) return null;
+					}
+					//noinspection UnusedAssignment
+					dexFile = null;
+					if (entry instanceof LazyDexEntry) ((LazyDexEntry<?, ?>) entry).unload();
+				}
+				done = true;
+			} finally {
+				if (done) queue.close();
+				else queue.abort();
+			}
+			return null;
+		}
+
+	}
+
+	// Writers that find the queue already drained do not write a dex file.
+	private static class Writer implements Callable<Void> {
+
+		private final ClassQueue queue;
+		private final QueueIterator classIterator;
+		private final Callable<Void> task;
+
+		public Writer(ClassQueue queue, QueueIterator classIterator, Callable<Void> task) {
+			this.queue = queue;
+			this.classIterator = classIterator;
+			this.task = task;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			boolean done = false;
+			try {
+				if (classIterator.hasNext()) task.call();
+				done = true;
+			} finally {
+				// Unblock the producer if this writer failed.
+				if (!done) queue.abort();
+			}
+			return null;
+		}
+
+	}
+
+	// A bounded blocking queue that can be closed by the producer or aborted by any party.
+	private static class ClassQueue {
+
+		private final int capacity;
+		private final Queue<ClassDef> items;
+		private boolean closed;
+		private boolean aborted;
+
+		public ClassQueue(int capacity) {
+			this.capacity = capacity;
+			items = new ArrayDeque<>(Math.min(capacity, 1024));
+		}
+
+		// Returns false if the queue was aborted.
+		public synchronized boolean put(ClassDef classDef) throws IOException {
+			try {
+				while (!aborted && items.size() >= capacity) wait();
+			} catch (InterruptedException e) {
+				abort();
+				throw ThreadUtils.interrupted(e);
+			}
+			if (aborted) return false;
+			items.add(classDef);
+			notifyAll();
+			return true;
+		}
+
+		// Returns null once the queue is closed and drained, or aborted.
+		public synchronized ClassDef take() {
+			try {
+				while (!aborted && !closed && items.isEmpty()) wait();
+			} catch (InterruptedException e) {
+				abort();
+				Thread.currentThread().interrupt();
+			}
+			if (aborted) return null;
+			ClassDef classDef = items.poll();
+			if (classDef != null) notifyAll();
+			return classDef;
+		}
+
+		public synchronized void close() {
+			closed = true;
+			notifyAll();
+		}
+
+		public synchronized boolean isAborted() {
+			return aborted;
+		}
+
+		public synchronized void abort() {
+			aborted = true;
+			items.clear();
+			notifyAll();
+		}
+
+	}
+
+	// Each writer owns an iterator; all iterators share the queue.
+	private static class QueueIterator extends UnmodifiableIterator<ClassDef> implements PeekingIterator<ClassDef> {
+
+		private final ClassQueue queue;
+		private ClassDef next;
+		private boolean done;
+
+		public QueueIterator(ClassQueue queue) {
+			this.queue = queue;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (next == null && !done) {
+				next = queue.take();
+				if (next == null) done = true;
+			}
+			return next != null;
+		}
+
+		@Override
+		public ClassDef peek() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return next;
+		}
+
+		@Override
+		public ClassDef next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			ClassDef classDef = next;
+			next = null;
+			return classDef;
+		}
+
+	}
+
+	private StreamingDexWriter() {}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class ThreadUtils {
+
+	public static int resolveThreadCount(int threadCount, int maxThreads) {
+		if (threadCount <= 0) {
+			threadCount = Runtime.getRuntime().availableProcessors();
+			if (threadCount > maxThreads) threadCount = maxThreads;
+		}
+		return threadCount;
+	}
+
+	public static <T> List<T> invokeAll(int threadCount, List<? extends Callable<T>> callables) throws IOException {
+		int taskCount = callables.size();
+		List<T> results = new ArrayList<>(taskCount);
+		if (threadCount <= 1 || taskCount <= 1) {
+			for (Callable<T> callable : callables) {
+				try {
+					results.add(callable.call());
+				} catch (Exception e) {
+					throw rethrow(e);
+				}
+			}
+			return results;
+		}
+		ExecutorService service = Executors.newFixedThreadPool(Math.min(threadCount, taskCount));
+		try {
+			List<Future<T>> futures = service.invokeAll(callables);
+			for (Future<T> future : futures) {
+				try {
+					results.add(future.get());
+				} catch (ExecutionException e) {
+					throw rethrow(e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			throw interrupted(e);
+		} finally {
+			service.shutdown();
+		}
+		return results;
+	}
+
+	// Runs the tasks on the executor if not null, or else on a new pool of threadCount threads.
+	public static <T> List<T> invokeAll(int threadCount, ExecutorService executor,
+			List<? extends Callable<T>> callables) throws IOException {
+		return executor != null ? invokeAll(executor, callables) : invokeAll(threadCount, callables);
+	}
+
+	// Runs the tasks on a client-provided executor. The calling thread runs the first task, and then any other task
+	// that has not started by the time its result is needed, so that tasks never wait for executor threads.
+	public static <T> List<T> invokeAll(ExecutorService executor, List<? extends Callable<T>> callables)
+			throws IOException {
+		int taskCount = callables.size();
+		List<SharedTask<T>> tasks = new ArrayList<>(taskCount);
+		for (Callable<T> callable : callables) tasks.add(new SharedTask<>(callable));
+		for (int i = 1; i < taskCount; i++) {
+			try {
+				executor.execute(tasks.get(i));
+			} catch (RejectedExecutionException e) {
+				// The task is run by the calling thread instead.
+			}
+		}
+		try {
+			try {
+				for (SharedTask<T> task : tasks) {
+					task.run();
+					task.await();
+					if (task.failure != null) break;
+				}
+			} finally {
+				// After a failure, skip the tasks that did not start and wait for the ones that did.
+				for (SharedTask<T> task : tasks) task.skip();
+			}
+			for (SharedTask<T> task : tasks) task.await();
+		} catch (InterruptedException e) {
+			throw interrupted(e);
+		}
+		List<T> results = new ArrayList<>(taskCount);
+		for (SharedTask<T> task : tasks) {
+			if (task.failure != null) throw rethrow(task.failure);
+			results.add(task.result);
+		}
+		return results;
+	}
+
+	// A task that runs at most once, on whichever thread claims it first.
+	private static class SharedTask<T> implements Runnable {
+
+		private final Callable<T> callable;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private T result;
+		private Throwable failure;
+
+		public SharedTask(Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		@Override
+		public void run() {
+			if (!claimed.compareAndSet(false, true)) return;
+			try {
+				result = callable.call();
+			} catch (Throwable e) {
+				failure = e;
+			} finally {
+				done.countDown();
+			}
+		}
+
+		public void skip() {
+			if (claimed.compareAndSet(false, true)) done.countDown();
+		}
+
+		public void await() throws InterruptedException {
+			done.await();
+		}
+
+	}
+
+	// Virtual Threads
+
+	private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = getNewVirtualThreadExecutorMethod();
+
+	// Virtual threads are looked up reflectively so that the library keeps its Java 7 target.
+	private static Method getNewVirtualThreadExecutorMethod() {
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+	}
+
+	public static ExecutorService newVirtualThreadExecutor() {
+		if (NEW_VIRTUAL_THREAD_EXECUTOR == null) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+		}
+		try {
+			return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+		} catch (IllegalAccessException e) {
+			throw new UnsupportedOperationException(e);
+		} catch (InvocationTargetException e) {
+			Throwable c = e.getCause();
+			if (c instanceof RuntimeException) throw (RuntimeException) c;
+			if (c instanceof Error) throw (Error) c;
+			throw new UndeclaredThrowableException(c);
+		}
+	}
+
+	public static IOException rethrow(Throwable c) {
+		if (c instanceof IOException) return (IOException) c;
+		if (c instanceof RuntimeException) throw (RuntimeException) c;
+		if (c instanceof Error) throw (Error) c;
+		throw new UndeclaredThrowableException(c);
+	}
+
+	public static InterruptedIOException interrupted(InterruptedException e) {
+		InterruptedIOException ioe = new InterruptedIOException();
+		ioe.initCause(e);
+		return ioe;
+	}
+
+	private ThreadUtils() {}
+
+}
@@ -0,0 +1,59 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+// Performance metrics of a thread that wrote dex files. Busy time is spent interning and writing dex pools,
+// wait time is spent blocked on other writer threads, and the remaining time is overhead.
+
+public class WriterWorkerMetrics {
+
+	private final String threadName;
+	private final int dexCount;
+	private final int classCount;
+	private final long busyNanos;
+	private final long waitNanos;
+	private final long totalNanos;
+
+	public WriterWorkerMetrics(String threadName, int dexCount, int classCount, long busyNanos, long waitNanos,
+			long totalNanos) {
+		this.threadName = threadName;
+		this.dexCount = dexCount;
+		this.classCount = classCount;
+		this.busyNanos = busyNanos;
+		this.waitNanos = waitNanos;
+		this.totalNanos = totalNanos;
+	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public int getDexCount() {
+		return dexCount;
+	}
+
+	public int getClassCount() {
+		return classCount;
+	}
+
+	public long getBusyNanos() {
+		return busyNanos;
+	}
+
+	public long getWaitNanos() {
+		return waitNanos;
+	}
+
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+}
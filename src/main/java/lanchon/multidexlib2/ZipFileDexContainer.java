@@ -11,8 +11,10 @@
 package lanchon.multidexlib2;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Map;
 import java.util.TreeMap;
@@ -36,23 +38,102 @@ public class ZipFileDexContainer extends AbstractMultiDexContainer<DexBackedDexF
 	}
 
 	public ZipFileDexContainer(File zip, DexFileNamer namer, Opcodes opcodes) throws IOException {
-		Map<String, DexEntry<DexBackedDexFile>> entryMap = new TreeMap<>(new DexFileNameComparator(namer));
+		this(zip, namer, opcodes, false, 1);
+	}
+
+	public ZipFileDexContainer(File zip, DexFileNamer namer, Opcodes opcodes, boolean lazy) throws IOException {
+		this(zip, namer, opcodes, lazy, 1);
+	}
+
+	public ZipFileDexContainer(File zip, DexFileNamer namer, Opcodes opcodes, int threadCount) throws IOException {
+		this(zip, namer, opcodes, false, threadCount);
+	}
+
+	// The zip file is not closed by the container and must stay open while lazy entries are being loaded.
+
+	public ZipFileDexContainer(ZipFile zipFile, DexFileNamer namer, Opcodes opcodes) throws IOException {
+		this(zipFile, namer, opcodes, false, 1);
+	}
+
+	public ZipFileDexContainer(ZipFile zipFile, DexFileNamer namer, Opcodes opcodes, boolean lazy)
+			throws IOException {
+		this(zipFile, namer, opcodes, lazy, 1);
+	}
+
+	public ZipFileDexContainer(ZipFile zipFile, DexFileNamer namer, Opcodes opcodes, int threadCount)
+			throws IOException {
+		this(zipFile, namer, opcodes, false, threadCount);
+	}
+
+	private ZipFileDexContainer(File zip, DexFileNamer namer, Opcodes opcodes, boolean lazy, int threadCount)
+			throws IOException {
 		try (ZipFile zipFile = new ZipFile(zip)) {
-			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
-			while (zipEntries.hasMoreElements()) {
-				ZipEntry zipEntry = zipEntries.nextElement();
-				String entryName = zipEntry.getName();
-				if (namer.isValidName(entryName)) {
-					DexBackedDexFile dexFile;
-					try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
-						dexFile = RawDexIO.readRawDexFile(inputStream, zipEntry.getSize(), opcodes);
-					}
-					DexEntry<DexBackedDexFile> entry = new BasicDexEntry<>(this, entryName, dexFile);
-					if (entryMap.put(entryName, entry) != null) throw duplicateEntryName(entryName);
-				}
+			// Lazy entries reopen the zip file when loaded, as this handle is closed on return.
+			readEntries(zip, zipFile, false, namer, opcodes, lazy, threadCount);
+		}
+	}
+
+	private ZipFileDexContainer(ZipFile zipFile, DexFileNamer namer, Opcodes opcodes, boolean lazy,
+			int threadCount) throws IOException {
+		readEntries(new File(zipFile.getName()), zipFile, true, namer, opcodes, lazy, threadCount);
+	}
+
+	private void readEntries(File zip, ZipFile zipFile, boolean keepZipFile, DexFileNamer namer, Opcodes opcodes,
+			boolean lazy, int threadCount) throws IOException {
+		Map<String, ZipDexEntry> entryMap = new TreeMap<>(new DexFileNameComparator(namer));
+		Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+		while (zipEntries.hasMoreElements()) {
+			ZipEntry zipEntry = zipEntries.nextElement();
+			String entryName = zipEntry.getName();
+			if (namer.isValidName(entryName)) {
+				// Eager entries are loaded below through the zip file that is already open.
+				ZipFile openZipFile = lazy && !keepZipFile ? null : zipFile;
+				ZipDexEntry entry = new ZipDexEntry(entryName, zip, openZipFile, opcodes);
+				if (entryMap.put(entryName, entry) != null) throw duplicateEntryName(entryName);
+			}
+		}
+		if (!lazy) {
+			loadEntries(entryMap.values(), threadCount);
+			// Entries that get unloaded must reopen the zip file if this handle is about to be closed.
+			if (!keepZipFile) for (ZipDexEntry entry : entryMap.values()) entry.detachZipFile();
+		}
+		initialize(Collections.<String, DexEntry<DexBackedDexFile>>unmodifiableMap(entryMap));
+	}
+
+	private class ZipDexEntry extends LazyDexEntry<ZipFileDexContainer, DexBackedDexFile> {
+
+		private final File zip;
+		private volatile ZipFile openZipFile;
+		private final Opcodes opcodes;
+
+		public ZipDexEntry(String entryName, File zip, ZipFile openZipFile, Opcodes opcodes) {
+			super(ZipFileDexContainer.this, entryName);
+			this.zip = zip;
+			this.openZipFile = openZipFile;
+			this.opcodes = opcodes;
+		}
+
+		public void detachZipFile() {
+			openZipFile = null;
+		}
+
+		@Override
+		protected DexBackedDexFile loadDexFile() throws IOException {
+			ZipFile openZipFile = this.openZipFile;
+			if (openZipFile != null) return readDexFile(openZipFile);
+			try (ZipFile zipFile = new ZipFile(zip)) {
+				return readDexFile(zipFile);
 			}
 		}
-		initialize(entryMap);
+
+		private DexBackedDexFile readDexFile(ZipFile zipFile) throws IOException {
+			ZipEntry zipEntry = zipFile.getEntry(getEntryName());
+			if (zipEntry == null) throw new FileNotFoundException("Zip entry not found: " + getEntryName());
+			try (InputStream inputStream = zipFile.getInputStream(zipEntry)) {
+				return RawDexIO.readRawDexFile(inputStream, zipEntry.getSize(), opcodes);
+			}
+		}
+
 	}
 
 }
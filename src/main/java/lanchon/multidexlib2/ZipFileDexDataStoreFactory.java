@@ -0,0 +1,339 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.jf.dexlib2.writer.io.DexDataStore;
+
+// The zip file is written to a temporary file in the same directory that replaces the target when closed.
+// Dex entries are only added once fully written, and a discarded or incomplete zip leaves the target untouched.
+
+public class ZipFileDexDataStoreFactory implements DexDataStoreFactory, Closeable {
+
+	public static final int STORED_DATA_ALIGNMENT = 4;
+
+	private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private static final int END_HEADER_SIGNATURE = 0x06054b50;
+
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int ALIGNMENT_EXTRA_ID = 0xd935;       // same extra field as Android's zipalign
+	private static final int ALIGNMENT_EXTRA_SIZE = 6;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+	private static final int UTF8_FLAG = 0x0800;
+	private static final int DOS_TIME = 0;                      // 00:00:00
+	private static final int DOS_DATE = (1 << 5) | 1;           // 1980-01-01 (for reproducible output)
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File zip;
+	private final DexFileNamer namer;
+	private final boolean compressed;
+	private final DexBufferPool bufferPool;
+	private final File tempFile;
+	private final OutputStream outputStream;
+	private final Set<Integer> openEntries = new HashSet<>();
+	private final TreeMap<Integer, ZipEntryData> pendingEntries = new TreeMap<>();
+	private final List<ZipEntryData> writtenEntries = new ArrayList<>();
+	private long position;
+	private boolean closed;
+
+	public ZipFileDexDataStoreFactory(File zip, DexFileNamer namer, boolean compressed) throws IOException {
+		this(zip, namer, compressed, new DexBufferPool());
+	}
+
+	public ZipFileDexDataStoreFactory(File zip, DexFileNamer namer, boolean compressed, DexBufferPool bufferPool)
+			throws IOException {
+		this.zip = zip;
+		this.namer = namer;
+		this.compressed = compressed;
+		this.bufferPool = bufferPool;
+		File directory = zip.getAbsoluteFile().getParentFile();
+		tempFile = Files.createTempFile(directory.toPath(), zip.getName() + ".", ".tmp").toFile();
+		boolean opened = false;
+		try {
+			outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+			opened = true;
+		} finally {
+			if (!opened) tempFile.delete();
+		}
+	}
+
+	@Override
+	public DexDataStore getDataStore(String name) {
+		int index = namer.getIndex(name);
+		if (index < 0) throw new IllegalArgumentException("Invalid dex file name: " + name);
+		synchronized (this) {
+			if (closed) throw new IllegalStateException("Zip file already closed");
+			openEntries.add(index);
+		}
+		return new ZipEntryDataStore(bufferPool, name, index);
+	}
+
+	public DexFileNamer getNamer() {
+		return namer;
+	}
+
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	private ZipEntryData createEntry(String name, PooledMemoryDataStore dataStore) throws IOException {
+		byte[] buf = dataStore.getBuffer();
+		int size = dataStore.getSize();
+		CRC32 crc = new CRC32();
+		crc.update(buf, 0, size);
+		ZipEntryData entry = new ZipEntryData(name.getBytes(UTF8), (int) crc.getValue(), size);
+		if (compressed) {
+			ByteArrayOutputStream deflatedBytes = new ByteArrayOutputStream(size / 2);
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(deflatedBytes, deflater)) {
+				deflaterStream.write(buf, 0, size);
+			} finally {
+				deflater.end();
+			}
+			if (deflatedBytes.size() < size) {
+				dataStore.release();
+				entry.setData(DEFLATED, deflatedBytes.toByteArray(), deflatedBytes.size(), null);
+				return entry;
+			}
+		}
+		entry.setData(STORED, buf, size, dataStore);
+		return entry;
+	}
+
+	private synchronized void addEntry(int index, ZipEntryData entry) throws IOException {
+		if (closed) {
+			entry.releaseData();
+			throw new IOException("Zip file already closed");
+		}
+		openEntries.remove(index);
+		if (pendingEntries.put(index, entry) != null) throw new DuplicateEntryNameException(namer.getName(index));
+		// Entries are written in namer order as soon as all preceding entries are available.
+		for (;;) {
+			ZipEntryData nextEntry = pendingEntries.remove(writtenEntries.size());
+			if (nextEntry == null) break;
+			writeLocalEntry(nextEntry);
+			writtenEntries.add(nextEntry);
+		}
+	}
+
+	// Completes the zip file and moves it into place.
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		boolean done = false;
+		try {
+			if (!openEntries.isEmpty()) {
+				throw new IOException("Incomplete zip entry: " + namer.getName(openEntries.iterator().next()));
+			}
+			if (!pendingEntries.isEmpty()) {
+				throw new IOException("Missing zip entry: " + namer.getName(writtenEntries.size()));
+			}
+			writeCentralDirectory();
+			outputStream.close();
+			move(tempFile, zip);
+			done = true;
+		} finally {
+			if (!done) abandon();
+		}
+	}
+
+	// Abandons the zip file, leaving any existing file at the target untouched.
+	public synchronized void discard() throws IOException {
+		if (closed) return;
+		closed = true;
+		abandon();
+	}
+
+	private void abandon() throws IOException {
+		for (ZipEntryData entry : pendingEntries.values()) entry.releaseData();
+		pendingEntries.clear();
+		try {
+			outputStream.close();
+		} catch (IOException e) {
+			// The temporary file is deleted anyway.
+		}
+		if (tempFile.exists() && !tempFile.delete()) {
+			throw new IOException("Cannot delete file: " + tempFile.toString());
+		}
+	}
+
+	private static void move(File source, File target) throws IOException {
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private void writeLocalEntry(ZipEntryData entry) throws IOException {
+		entry.localHeaderOffset = position;
+		int extraLength = 0;
+		int padding = 0;
+		if (entry.method == STORED) {
+			long dataOffset = position + LOCAL_HEADER_SIZE + entry.name.length + ALIGNMENT_EXTRA_SIZE;
+			padding = (int) ((STORED_DATA_ALIGNMENT - dataOffset % STORED_DATA_ALIGNMENT) % STORED_DATA_ALIGNMENT);
+			extraLength = ALIGNMENT_EXTRA_SIZE + padding;
+		}
+		writeInt(LOCAL_HEADER_SIGNATURE);
+		writeEntryHeaderFields(entry);
+		writeShort(entry.name.length);
+		writeShort(extraLength);
+		writeBytes(entry.name, entry.name.length);
+		if (extraLength != 0) {
+			writeShort(ALIGNMENT_EXTRA_ID);
+			writeShort(extraLength - 4);
+			writeShort(STORED_DATA_ALIGNMENT);
+			writeBytes(new byte[padding], padding);
+		}
+		writeBytes(entry.data, entry.dataSize);
+		entry.releaseData();
+		checkPosition();
+	}
+
+	private void writeCentralDirectory() throws IOException {
+		int entryCount = writtenEntries.size();
+		if (entryCount > 0xffff) throw new IOException("Too many zip entries");
+		long centralDirectoryOffset = position;
+		for (ZipEntryData entry : writtenEntries) {
+			writeInt(CENTRAL_HEADER_SIGNATURE);
+			writeShort(20);                                     // version made by
+			writeEntryHeaderFields(entry);
+			writeShort(entry.name.length);
+			writeShort(0);                                      // extra field length
+			writeShort(0);                                      // comment length
+			writeShort(0);                                      // disk number start
+			writeShort(0);                                      // internal file attributes
+			writeInt(0);                                        // external file attributes
+			writeInt((int) entry.localHeaderOffset);
+			writeBytes(entry.name, entry.name.length);
+		}
+		long centralDirectorySize = position - centralDirectoryOffset;
+		checkPosition();
+		writeInt(END_HEADER_SIGNATURE);
+		writeShort(0);                                          // number of this disk
+		writeShort(0);                                          // disk with central directory
+		writeShort(entryCount);
+		writeShort(entryCount);
+		writeInt((int) centralDirectorySize);
+		writeInt((int) centralDirectoryOffset);
+		writeShort(0);                                          // comment length
+	}
+
+	private void writeEntryHeaderFields(ZipEntryData entry) throws IOException {
+		writeShort(entry.method == STORED ? 10 : 20);           // version needed to extract
+		writeShort(UTF8_FLAG);
+		writeShort(entry.method);
+		writeShort(DOS_TIME);
+		writeShort(DOS_DATE);
+		writeInt(entry.crc);
+		writeInt(entry.dataSize);
+		writeInt(entry.size);
+	}
+
+	private void checkPosition() throws IOException {
+		if (position > 0xffffffffL) throw new IOException("Zip file too big");
+	}
+
+	private void writeShort(int value) throws IOException {
+		outputStream.write(value);
+		outputStream.write(value >>> 8);
+		position += 2;
+	}
+
+	private void writeInt(int value) throws IOException {
+		writeShort(value);
+		writeShort(value >>> 16);
+	}
+
+	private void writeBytes(byte[] bytes, int length) throws IOException {
+		outputStream.write(bytes, 0, length);
+		position += length;
+	}
+
+	private class ZipEntryDataStore extends PooledMemoryDataStore implements CommittableDexDataStore {
+
+		private final String name;
+		private final int index;
+
+		public ZipEntryDataStore(DexBufferPool bufferPool, String name, int index) {
+			super(bufferPool);
+			this.name = name;
+			this.index = index;
+		}
+
+		@Override
+		public void commit() throws IOException {
+			// Compress on the calling thread: in multi-threaded writes each worker deflates its own dex.
+			addEntry(index, createEntry(name, this));
+		}
+
+	}
+
+	private static class ZipEntryData {
+
+		public final byte[] name;
+		public final int crc;
+		public final int size;
+		public int method;
+		public byte[] data;
+		public int dataSize;
+		public PooledMemoryDataStore dataStore;
+		public long localHeaderOffset;
+
+		public ZipEntryData(byte[] name, int crc, int size) {
+			this.name = name;
+			this.crc = crc;
+			this.size = size;
+		}
+
+		public void setData(int method, byte[] data, int dataSize, PooledMemoryDataStore dataStore) {
+			this.method = method;
+			this.data = data;
+			this.dataSize = dataSize;
+			this.dataStore = dataStore;
+		}
+
+		public void releaseData() {
+			data = null;
+			if (dataStore != null) {
+				dataStore.release();
+				dataStore = null;
+			}
+		}
+
+	}
+
+}
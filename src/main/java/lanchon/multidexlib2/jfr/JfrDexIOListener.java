@@ -0,0 +1,55 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.jfr;
+
+import java.io.File;
+
+import lanchon.multidexlib2.DexIO;
+import lanchon.multidexlib2.DexReadMetrics;
+import lanchon.multidexlib2.DexWriteMetrics;
+import lanchon.multidexlib2.WriterWorkerMetrics;
+
+// The base version of the JFR listener, used before Java 11. It has the same public signature as the Java 11
+// version in 'src/main/java11', which replaces it in the multi-release jar, but it emits no events.
+
+public class JfrDexIOListener implements DexIO.Listener {
+
+	private final DexIO.Logger logger;
+
+	public JfrDexIOListener() {
+		this(null);
+	}
+
+	public JfrDexIOListener(DexIO.Logger logger) {
+		this.logger = logger;
+	}
+
+	@Override
+	public void log(File file, String entryName, int typeCount) {
+		if (logger != null) logger.log(file, entryName, typeCount);
+	}
+
+	@Override
+	public void onDexRead(DexReadMetrics metrics) {
+		if (logger instanceof DexIO.Listener) ((DexIO.Listener) logger).onDexRead(metrics);
+	}
+
+	@Override
+	public void onDexWrite(DexWriteMetrics metrics) {
+		if (logger instanceof DexIO.Listener) ((DexIO.Listener) logger).onDexWrite(metrics);
+	}
+
+	@Override
+	public void onWriterWorkerDone(WriterWorkerMetrics metrics) {
+		if (logger instanceof DexIO.Listener) ((DexIO.Listener) logger).onWriterWorkerDone(metrics);
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2.jfr;
+
+import java.io.File;
+
+import lanchon.multidexlib2.DexIO;
+import lanchon.multidexlib2.DexReadMetrics;
+import lanchon.multidexlib2.DexWriteMetrics;
+import lanchon.multidexlib2.Footprint;
+import lanchon.multidexlib2.WriterWorkerMetrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+// Emits the metrics of a DexIO.Listener as Java Flight Recorder events (requires Java 11 or later).
+
+public class JfrDexIOListener implements DexIO.Listener {
+
+	private final DexIO.Logger logger;
+
+	public JfrDexIOListener() {
+		this(null);
+	}
+
+	public JfrDexIOListener(DexIO.Logger logger) {
+		this.logger = logger;
+	}
+
+	@Override
+	public void log(File file, String entryName, int typeCount) {
+		if (logger != null) logger.log(file, entryName, typeCount);
+	}
+
+	@Override
+	public void onDexRead(DexReadMetrics metrics) {
+		if (logger instanceof DexIO.Listener) ((DexIO.Listener) logger).onDexRead(metrics);
+		DexReadEvent event = new DexReadEvent();
+		if (event.isEnabled()) {
+			event.file = toString(metrics.getFile());
+			event.entryName = metrics.getEntryName();
+			event.byteCount = metrics.getByteCount();
+			event.classCount = metrics.getClassCount();
+			event.loadTime = metrics.getLoadNanos();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onDexWrite(DexWriteMetrics metrics) {
+		if (logger instanceof DexIO.Listener) ((DexIO.Listener) logger).onDexWrite(metrics);
+		DexWriteEvent event = new DexWriteEvent();
+		if (event.isEnabled()) {
+			event.file = toString(metrics.getFile());
+			event.entryName = metrics.getEntryName();
+			event.threadName = metrics.getThreadName();
+			event.classCount = metrics.getClassCount();
+			event.stringCount = metrics.getItemCount(Footprint.Section.STRING);
+			event.typeCount = metrics.getItemCount(Footprint.Section.TYPE);
+			event.protoCount = metrics.getItemCount(Footprint.Section.PROTO);
+			event.fieldCount = metrics.getItemCount(Footprint.Section.FIELD);
+			event.methodCount = metrics.getItemCount(Footprint.Section.METHOD);
+			event.callSiteCount = metrics.getItemCount(Footprint.Section.CALL_SITE);
+			event.methodHandleCount = metrics.getItemCount(Footprint.Section.METHOD_HANDLE);
+			event.resetCount = metrics.getResetCount();
+			event.byteCount = metrics.getByteCount();
+			event.budgetWaitTime = metrics.getBudgetWaitNanos();
+			event.internTime = metrics.getInternNanos();
+			event.lockWaitTime = metrics.getLockWaitNanos();
+			event.writeTime = metrics.getWriteNanos();
+			event.commit();
+		}
+	}
+
+	@Override
+	public void onWriterWorkerDone(WriterWorkerMetrics metrics) {
+		if (logger instanceof DexIO.Listener) ((DexIO.Listener) logger).onWriterWorkerDone(metrics);
+		WriterWorkerEvent event = new WriterWorkerEvent();
+		if (event.isEnabled()) {
+			event.threadName = metrics.getThreadName();
+			event.dexCount = metrics.getDexCount();
+			event.classCount = metrics.getClassCount();
+			event.busyTime = metrics.getBusyNanos();
+			event.waitTime = metrics.getWaitNanos();
+			event.totalTime = metrics.getTotalNanos();
+			event.commit();
+		}
+	}
+
+	private static String toString(File file) {
+		return file != null ? file.toString() : null;
+	}
+
+	@Name("lanchon.multidexlib2.DexRead")
+	@Label("Dex Read")
+	@Category("multidexlib2")
+	static class DexReadEvent extends Event {
+		@Label("File") String file;
+		@Label("Entry Name") String entryName;
+		@Label("Size") @DataAmount long byteCount;
+		@Label("Class Count") int classCount;
+		@Label("Load Time") @Timespan long loadTime;
+	}
+
+	@Name("lanchon.multidexlib2.DexWrite")
+	@Label("Dex Write")
+	@Category("multidexlib2")
+	static class DexWriteEvent extends Event {
+		@Label("File") String file;
+		@Label("Entry Name") String entryName;
+		@Label("Writer Thread") String threadName;
+		@Label("Class Count") int classCount;
+		@Label("String Count") int stringCount;
+		@Label("Type Count") int typeCount;
+		@Label("Proto Count") int protoCount;
+		@Label("Field Count") int fieldCount;
+		@Label("Method Count") int methodCount;
+		@Label("Call Site Count") int callSiteCount;
+		@Label("Method Handle Count") int methodHandleCount;
+		@Label("Overflow Reset Count") int resetCount;
+		@Label("Size") @DataAmount long byteCount;
+		@Label("Heap Budget Wait Time") @Timespan long budgetWaitTime;
+		@Label("Intern Time") @Timespan long internTime;
+		@Label("Lock Wait Time") @Timespan long lockWaitTime;
+		@Label("Write Time") @Timespan long writeTime;
+	}
+
+	@Name("lanchon.multidexlib2.WriterWorker")
+	@Label("Dex Writer Worker")
+	@Category("multidexlib2")
+	static class WriterWorkerEvent extends Event {
+		@Label("Writer Thread") String threadName;
+		@Label("Dex Count") int dexCount;
+		@Label("Class Count") int classCount;
+		@Label("Busy Time") @Timespan long busyTime;
+		@Label("Wait Time") @Timespan long waitTime;
+		@Label("Total Time") @Timespan long totalTime;
+	}
+
+}
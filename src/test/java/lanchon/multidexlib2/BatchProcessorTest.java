@@ -0,0 +1,231 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.Files;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BatchProcessorTest {
+
+	private static final int MAX_DEX_POOL_SIZE = 2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void resultsFollowJobOrder() throws IOException {
+		File root = folder.getRoot();
+		File largeInput = writeInput("large.zip", TestDexFiles.createDexFile(3000, "large"));
+		File smallInput = writeInput("small.zip", TestDexFiles.createDexFile(500, "small"));
+		File directoryOutput = folder.newFolder("out");
+		List<DexBatchJob> jobs = Arrays.asList(
+				newJob(largeInput, new File(root, "large-out.zip")),
+				newJob(new File(root, "missing.zip"), new File(root, "missing-out.zip")),
+				newJob(smallInput, directoryOutput),
+				newJob(smallInput, new File(root, "small-out.zip")));
+		List<DexBatchResult> results = MultiDexIO.processBatch(4, 2, jobs, null);
+		assertEquals(jobs.size(), results.size());
+		for (int i = 0; i < jobs.size(); i++) {
+			DexBatchResult result = results.get(i);
+			DexBatchJob job = jobs.get(i);
+			assertSame(job, result.getJob());
+			if (i == 1) {
+				assertFalse(result.isSuccessful());
+				assertFalse(job.getOutputFile().exists());
+				continue;
+			}
+			assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+			DexFile input = read(job.getInputFile());
+			assertEquals(input.getClasses().size(), result.getClassCount());
+			assertEquals(getTypes(input), getTypes(read(job.getOutputFile())));
+			int dexFileCount = MultiDexIO.readMultiDexContainer(job.getOutputFile(), new BasicDexFileNamer(),
+					DexReadOptions.DEFAULT)
+					.getDexEntryNames().size();
+			assertEquals(dexFileCount, result.getDexFileCount());
+		}
+		assertTrue(results.get(0).getDexFileCount() > 1);
+	}
+
+	@Test
+	public void failedJobLeavesNoPartialZip() throws IOException {
+		// A class that overflows an empty dex pool fails the write after the preceding dex files were written.
+		List<ClassDef> classes = new ArrayList<>(TestDexFiles.createDexFile(3000).getClasses());
+		classes.add(createOversizedClassDef());
+		File input = writeInput("input.zip", new ImmutableDexFile(Opcodes.forApi(TestDexFiles.API_LEVEL), classes));
+		File output = new File(folder.getRoot(), "output.zip");
+		byte[] original = { 1, 2, 3 };
+		Files.write(original, output);
+		List<DexBatchResult> results = MultiDexIO.processBatch(4, 1, Collections.singletonList(newJob(input, output)),
+				null);
+		assertFalse(results.get(0).isSuccessful());
+		assertEquals(0, results.get(0).getDexFileCount());
+		assertArrayEquals(original, Files.toByteArray(output));
+		assertEquals(new HashSet<>(Arrays.asList("input.zip", "output.zip")),
+				new HashSet<>(Arrays.asList(folder.getRoot().list())));
+	}
+
+	@Test(timeout = 120000)
+	public void plannedJobsRunOnSmallPool() throws IOException {
+		// Planned partitions would make the tasks of a job wait for each other on a pool smaller than the job.
+		List<DexBatchJob> jobs = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			File input = writeInput("input" + i + ".zip", TestDexFiles.createDexFile(3000, "v" + i));
+			jobs.add(newJob(input, new File(folder.getRoot(), "output" + i + ".zip"),
+					new SequentialClassPartitioner(true)));
+		}
+		for (int poolSize = 1; poolSize <= 2; poolSize++) {
+			ExecutorService executor = Executors.newFixedThreadPool(poolSize);
+			try {
+				List<DexBatchResult> results = MultiDexIO.processBatch(executor, 4, 2, jobs, null);
+				for (int i = 0; i < jobs.size(); i++) {
+					DexBatchResult result = results.get(i);
+					assertTrue(String.valueOf(result.getFailure()), result.isSuccessful());
+					assertTrue(result.getDexFileCount() > 1);
+					DexBatchJob job = jobs.get(i);
+					assertEquals(getTypes(read(job.getInputFile())), getTypes(read(job.getOutputFile())));
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void shutDownExecutorFailsAllJobs() throws IOException {
+		File input = writeInput("input.zip", TestDexFiles.createDexFile(500));
+		List<DexBatchJob> jobs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) jobs.add(newJob(input, new File(folder.getRoot(), "output" + i + ".zip")));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		executor.shutdown();
+		List<DexBatchResult> results = MultiDexIO.processBatch(executor, 2, 1, jobs, null);
+		for (DexBatchResult result : results) {
+			assertTrue(result.getFailure() instanceof RejectedExecutionException);
+			assertFalse(result.getJob().getOutputFile().exists());
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void saturatedExecutorFailsRemainingJobs() throws IOException {
+		File input = writeInput("input.zip", TestDexFiles.createDexFile(500));
+		List<DexBatchJob> jobs = new ArrayList<>();
+		for (int i = 0; i < 3; i++) jobs.add(newJob(input, new File(folder.getRoot(), "output" + i + ".zip")));
+		// Accepts the read task of the first job and then rejects its write tasks.
+		ExecutorService executor = new LimitedExecutor(2, 1);
+		try {
+			List<DexBatchResult> results = MultiDexIO.processBatch(executor, 2, 1, jobs, null);
+			for (DexBatchResult result : results) {
+				assertTrue(result.getFailure() instanceof RejectedExecutionException);
+				assertFalse(result.getJob().getOutputFile().exists());
+			}
+			assertEquals(500, results.get(0).getClassCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private File writeInput(String name, DexFile dexFile) throws IOException {
+		File file = new File(folder.getRoot(), name);
+		MultiDexIO.writeMultiDexZipFile(true, file, new BasicDexFileNamer(), true, dexFile,
+				DexWriteOptions.DEFAULT);
+		return file;
+	}
+
+	private static DexBatchJob newJob(File inputFile, File outputFile) {
+		return newJob(inputFile, outputFile, null);
+	}
+
+	private static DexBatchJob newJob(File inputFile, File outputFile, ClassPartitioner partitioner) {
+		return new DexBatchJob(true, inputFile, new BasicDexFileNamer(), null, outputFile, new BasicDexFileNamer(),
+				false, partitioner, 0, false, MAX_DEX_POOL_SIZE);
+	}
+
+	private static DexFile read(File file) throws IOException {
+		return MultiDexIO.readDexFile(true, file, new BasicDexFileNamer(), DexReadOptions.DEFAULT);
+	}
+
+	private static Set<String> getTypes(DexFile dexFile) {
+		Set<String> types = new HashSet<>();
+		for (ClassDef classDef : dexFile.getClasses()) types.add(classDef.getType());
+		return types;
+	}
+
+	// A class that references more methods than fit in a dex pool.
+	private static ClassDef createOversizedClassDef() {
+		String type = "Ltest/Oversized;";
+		List<ImmutableInstruction> instructions = new ArrayList<>();
+		for (int i = 0; i <= MAX_DEX_POOL_SIZE; i++) {
+			instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+					new ImmutableMethodReference("Lexternal/Oversized;", "m" + i, null, "V")));
+		}
+		instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+		int flags = AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue();
+		ImmutableMethod method = new ImmutableMethod(type, "m", null, "V", flags, null,
+				new ImmutableMethodImplementation(1, instructions, null, null));
+		return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null, null,
+				null, Collections.singletonList(method));
+	}
+
+	// An executor that rejects all tasks after accepting a number of them.
+	private static class LimitedExecutor extends ThreadPoolExecutor {
+
+		private int acceptedTasks;
+
+		public LimitedExecutor(int threadCount, int acceptedTasks) {
+			super(threadCount, threadCount, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+			this.acceptedTasks = acceptedTasks;
+		}
+
+		@Override
+		public synchronized void execute(Runnable command) {
+			if (acceptedTasks == 0) throw new RejectedExecutionException("Executor saturated");
+			acceptedTasks--;
+			super.execute(command);
+		}
+
+	}
+
+}
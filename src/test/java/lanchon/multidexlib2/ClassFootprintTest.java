@@ -0,0 +1,108 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.ImmutableMethodParameter;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction45cc;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodProtoReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.writer.pool.DexPool;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClassFootprintTest {
+
+	// Invoke-polymorphic requires API 26.
+	private static final Opcodes OPCODES = Opcodes.forApi(26);
+
+	@Test
+	public void footprintsMatchDexPool() {
+		List<ClassDef> classes = new ArrayList<>(TestDexFiles.createDexFile(200).getClasses());
+		classes.add(createPolymorphicClassDef(0, "I"));
+		FootprintAnalyzer analyzer = new FootprintAnalyzer();
+		for (ClassDef classDef : classes) {
+			ClassFootprint footprint = analyzer.analyze(classDef);
+			DexPool dexPool = new DexPool(OPCODES);
+			dexPool.internClass(classDef);
+			String type = classDef.getType();
+			assertEquals(type, dexPool.stringSection.getItemCount(), footprint.getCount(Footprint.Section.STRING));
+			assertEquals(type, dexPool.typeSection.getItemCount(), footprint.getCount(Footprint.Section.TYPE));
+			assertEquals(type, dexPool.protoSection.getItemCount(), footprint.getCount(Footprint.Section.PROTO));
+			assertEquals(type, dexPool.fieldSection.getItemCount(), footprint.getCount(Footprint.Section.FIELD));
+			assertEquals(type, dexPool.methodSection.getItemCount(), footprint.getCount(Footprint.Section.METHOD));
+		}
+	}
+
+	@Test
+	public void countsProtoOfInvokePolymorphic() {
+		FootprintAnalyzer analyzer = new FootprintAnalyzer();
+		int sharedProtoCount = analyzer.analyze(createPolymorphicClassDef(0, "I")).getCount(Footprint.Section.PROTO);
+		int ownProtoCount = analyzer.analyze(createPolymorphicClassDef(1, "J")).getCount(Footprint.Section.PROTO);
+		// The dex file needs the proto of the call site even if no method declares it.
+		assertEquals(sharedProtoCount + 1, ownProtoCount);
+	}
+
+	@Test
+	public void plannedPartitionsMatchGreedyFill() throws IOException {
+		List<ClassDef> classes = new ArrayList<>(TestDexFiles.createDexFile(3000).getClasses());
+		for (int i = 0; i < 200; i++) classes.add(createPolymorphicClassDef(i, "I"));
+		DexFile dexFile = new ImmutableDexFile(OPCODES, classes);
+		Map<String, byte[]> expected = write(dexFile, null);
+		assertTrue(expected.size() > 1);
+		TestDexFiles.assertSameFiles(expected, write(dexFile, new SequentialClassPartitioner(true)));
+	}
+
+	private static Map<String, byte[]> write(DexFile dexFile, ClassPartitioner partitioner) throws IOException {
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		MemoryDexDataStoreFactory dataStoreFactory = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, dataStoreFactory, namer, dexFile, DexWriteOptions.builder()
+				.setPartitioner(partitioner).setMaxDexPoolSize(2000).build());
+		return TestDexFiles.getData(dataStoreFactory);
+	}
+
+	// A class with a method of proto (I)V that invokes a method handle with a call site proto of (callType)V.
+	private static ClassDef createPolymorphicClassDef(int index, String callType) {
+		String type = "Ltest/poly/C" + index + ";";
+		List<ImmutableInstruction> instructions = new ArrayList<>();
+		instructions.add(new ImmutableInstruction45cc(Opcode.INVOKE_POLYMORPHIC, 2, 0, 1, 0, 0, 0,
+				new ImmutableMethodReference("Ljava/lang/invoke/MethodHandle;", "invoke",
+						Collections.singletonList("[Ljava/lang/Object;"), "Ljava/lang/Object;"),
+				new ImmutableMethodProtoReference(Collections.singletonList(callType), "V")));
+		instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+		int flags = AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue();
+		List<ImmutableMethodParameter> parameters = Collections.singletonList(
+				new ImmutableMethodParameter("I", null, null));
+		ImmutableMethod method = new ImmutableMethod(type, "m", parameters, "V", flags, null,
+				new ImmutableMethodImplementation(2, instructions, null, null));
+		return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null, null,
+				null, Collections.singletonList(method));
+	}
+
+}
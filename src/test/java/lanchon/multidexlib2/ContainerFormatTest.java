@@ -0,0 +1,108 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.io.Files;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContainerFormatTest {
+
+	private static final int CLASS_COUNT = 1000;
+	private static final int MAX_DEX_POOL_SIZE = 1000;
+
+	private static final BasicDexFileNamer NAMER = new BasicDexFileNamer();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void dexFileIsReadAsSingleDex() throws IOException {
+		File file = new File(folder.getRoot(), "in.dex");
+		RawDexIO.writeRawDexFile(file, TestDexFiles.createDexFile(100), DexIO.DEFAULT_MAX_DEX_POOL_SIZE);
+		assertEquals(ContainerFormat.DEX, ContainerFormat.detect(file));
+		MultiDexContainer<DexBackedDexFile> container = read(file);
+		assertTrue(container instanceof SingletonDexContainer);
+		assertEquals(1, container.getDexEntryNames().size());
+		List<DexHeaderInfo> headers = DexHeaderReader.probe(file, NAMER);
+		assertEquals(1, headers.size());
+		assertEquals(file.length(), headers.get(0).getFileSize());
+		assertEquals(100, headers.get(0).getClassCount());
+	}
+
+	@Test
+	public void zipFileIsDetectedByContent() throws IOException {
+		// Zip files are recognized whatever their name.
+		File file = new File(folder.getRoot(), "in.dat");
+		MultiDexIO.writeMultiDexZipFile(true, file, NAMER, true, TestDexFiles.createDexFile(CLASS_COUNT),
+				getOptions());
+		assertEquals(ContainerFormat.ZIP, ContainerFormat.detect(file));
+		assertTrue(ContainerFormat.isZipFile(file));
+		MultiDexContainer<DexBackedDexFile> container = read(file);
+		assertTrue(container instanceof ZipFileDexContainer);
+		assertTrue(container.getDexEntryNames().size() > 1);
+		assertEquals(container.getDexEntryNames().size(), DexHeaderReader.probe(file, NAMER).size());
+	}
+
+	@Test
+	public void directoryIsReadAsMultiDex() throws IOException {
+		File directory = folder.newFolder("in");
+		MultiDexIO.writeMultiDexDirectory(true, directory, NAMER, TestDexFiles.createDexFile(CLASS_COUNT),
+				getOptions());
+		MultiDexContainer<DexBackedDexFile> container = read(directory);
+		assertTrue(container instanceof DirectoryDexContainer);
+		assertTrue(container.getDexEntryNames().size() > 1);
+		List<DexHeaderInfo> headers = DexHeaderReader.probe(directory, NAMER);
+		assertEquals(container.getDexEntryNames().size(), headers.size());
+		int classCount = 0;
+		for (DexHeaderInfo header : headers) classCount += header.getClassCount();
+		assertEquals(CLASS_COUNT, classCount);
+	}
+
+	@Test
+	public void emptyZipFileIsDetected() throws IOException {
+		File file = new File(folder.getRoot(), "empty.zip");
+		new ZipOutputStream(new FileOutputStream(file)).close();
+		assertEquals(ContainerFormat.ZIP, ContainerFormat.detect(file));
+	}
+
+	@Test
+	public void otherFilesAreNotDetected() throws IOException {
+		File file = new File(folder.getRoot(), "in.zip");
+		Files.write(new byte[] { 'P', 'K' }, file);
+		assertEquals(ContainerFormat.UNKNOWN, ContainerFormat.detect(file));
+		Files.write(new byte[] { 'M', 'Z', 0, 0, 'P', 'K', 3, 4 }, file);
+		assertEquals(ContainerFormat.UNKNOWN, ContainerFormat.detect(file));
+		assertFalse(ContainerFormat.isZipFile(file));
+	}
+
+	private static MultiDexContainer<DexBackedDexFile> read(File file) throws IOException {
+		return MultiDexIO.readMultiDexContainer(true, file, NAMER, DexReadOptions.DEFAULT);
+	}
+
+	private static DexWriteOptions getOptions() {
+		return DexWriteOptions.builder().setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build();
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DexContainerCacheTest {
+
+	private static final int CLASS_COUNT = 1000;
+	private static final int MAX_DEX_POOL_SIZE = 1000;
+
+	private static final BasicDexFileNamer NAMER = new BasicDexFileNamer();
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void unchangedFileIsReused() throws IOException {
+		File zip = new File(folder.getRoot(), "in.zip");
+		MultiDexIO.writeMultiDexZipFile(true, zip, NAMER, false, TestDexFiles.createDexFile(CLASS_COUNT),
+				getOptions());
+		DexContainerCache cache = new DexContainerCache();
+		MultiDexContainer<DexBackedDexFile> container = cache.readMultiDexContainer(zip, NAMER,
+				DexReadOptions.DEFAULT);
+		assertSame(container, cache.readMultiDexContainer(zip, NAMER, DexReadOptions.DEFAULT));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.getEntryCount());
+		TestDexFiles.assertSameFiles(TestDexFiles.getData(container),
+				TestDexFiles.getData(MultiDexIO.readMultiDexContainer(zip, NAMER, DexReadOptions.DEFAULT)));
+	}
+
+	@Test
+	public void changedFileIsReadAgain() throws IOException {
+		File directory = folder.newFolder("in");
+		// The variants have the same length, so that only the modification times tell the dex files apart.
+		MultiDexIO.writeMultiDexDirectory(true, directory, NAMER, TestDexFiles.createDexFile(CLASS_COUNT, "a"),
+				getOptions());
+		File[] files = directory.listFiles();
+		assertTrue(files != null && files.length > 1);
+		for (File file : files) assertTrue(file.setLastModified(file.lastModified() - 10000));
+		DexContainerCache cache = new DexContainerCache();
+		MultiDexContainer<DexBackedDexFile> container = cache.readMultiDexContainer(directory, NAMER,
+				DexReadOptions.DEFAULT);
+		MultiDexIO.writeMultiDexDirectory(true, directory, NAMER, TestDexFiles.createDexFile(CLASS_COUNT, "b"),
+				getOptions());
+		MultiDexContainer<DexBackedDexFile> changed = cache.readMultiDexContainer(directory, NAMER,
+				DexReadOptions.DEFAULT);
+		assertNotSame(container, changed);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+		assertEquals(1, cache.getEntryCount());
+		TestDexFiles.assertSameFiles(TestDexFiles.readFiles(directory), TestDexFiles.getData(changed));
+		assertSame(changed, cache.readMultiDexContainer(directory, NAMER, DexReadOptions.DEFAULT));
+	}
+
+	@Test
+	public void invalidatedFileIsReadAgain() throws IOException {
+		File zip = new File(folder.getRoot(), "in.zip");
+		MultiDexIO.writeMultiDexZipFile(true, zip, NAMER, true, TestDexFiles.createDexFile(CLASS_COUNT),
+				getOptions());
+		DexContainerCache cache = new DexContainerCache();
+		MultiDexContainer<DexBackedDexFile> container = cache.readMultiDexContainer(zip, NAMER,
+				DexReadOptions.DEFAULT);
+		assertTrue(cache.getByteCount() > 0);
+		cache.invalidate(zip);
+		assertEquals(0, cache.getEntryCount());
+		assertEquals(0, cache.getByteCount());
+		assertNotSame(container, cache.readMultiDexContainer(zip, NAMER, DexReadOptions.DEFAULT));
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void lazyReadsAreRejected() throws IOException {
+		File zip = new File(folder.getRoot(), "in.zip");
+		MultiDexIO.writeMultiDexZipFile(true, zip, NAMER, false, TestDexFiles.createDexFile(CLASS_COUNT),
+				getOptions());
+		new DexContainerCache().readMultiDexContainer(zip, NAMER, DexReadOptions.builder().setLazy(true).build());
+	}
+
+	private static DexWriteOptions getOptions() {
+		return DexWriteOptions.builder().setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build();
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DexTypeIndexTest {
+
+	private static final int CLASS_COUNT = 1000;
+	private static final int MAX_DEX_POOL_SIZE = 1000;
+
+	private static final BasicDexFileNamer NAMER = new BasicDexFileNamer();
+	private static final Opcodes OPCODES = Opcodes.forApi(TestDexFiles.API_LEVEL);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void indexLocatesEveryType() throws IOException {
+		File directory = folder.newFolder("in");
+		MultiDexIO.writeMultiDexDirectory(true, directory, NAMER, TestDexFiles.createDexFile(CLASS_COUNT),
+				DexWriteOptions.builder().setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build());
+		DirectoryDexContainer container = new DirectoryDexContainer(directory, NAMER, OPCODES);
+		assertTrue(container.getDexEntryNames().size() > 1);
+		DexTypeIndex<DexBackedDexFile> index = container.getTypeIndex();
+		checkIndex(container, index);
+		checkIndex(container, DexTypeIndex.build(container, 4));
+		String missingType = TestDexFiles.getType(CLASS_COUNT);
+		assertFalse(index.contains(missingType));
+		assertNull(index.getEntryName(missingType));
+		assertNull(index.getClassDef(missingType));
+	}
+
+	@Test
+	public void duplicateTypesAreRejected() throws IOException {
+		File directory = writeOverlappingDexFiles();
+		DirectoryDexContainer container = new DirectoryDexContainer(directory, NAMER, OPCODES);
+		try {
+			new MultiDexContainerBackedDexFile<>(container, MultiDexContainerBackedDexFile.DuplicateTypeCheck.EAGER,
+					1);
+			fail("Expected the duplicate type");
+		} catch (DuplicateTypeException e) {
+			// Expected.
+		}
+		// Deferred checks fail on first access to the classes instead.
+		MultiDexContainerBackedDexFile<DexBackedDexFile> dexFile = new MultiDexContainerBackedDexFile<>(container,
+				MultiDexContainerBackedDexFile.DuplicateTypeCheck.DEFERRED, 1);
+		try {
+			dexFile.getClasses();
+			fail("Expected the duplicate type");
+		} catch (DuplicateTypeException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void uncheckedUnionKeepsDuplicateTypes() throws IOException {
+		File directory = writeOverlappingDexFiles();
+		DirectoryDexContainer container = new DirectoryDexContainer(directory, NAMER, OPCODES);
+		MultiDexContainerBackedDexFile<DexBackedDexFile> dexFile = new MultiDexContainerBackedDexFile<>(container,
+				MultiDexContainerBackedDexFile.DuplicateTypeCheck.NONE, 1);
+		// The union of the classes of all entries, in entry order and without dropping duplicates.
+		int entryClassCount = 0;
+		for (String name : container.getDexEntryNames()) {
+			//noinspection ConstantConditions
+			entryClassCount += container.getEntry(name).getDexFile().getClasses().size();
+		}
+		assertTrue(entryClassCount > CLASS_COUNT);
+		assertEquals(entryClassCount, dexFile.getClasses().size());
+		List<String> types = new ArrayList<>();
+		for (ClassDef classDef : dexFile.getClasses()) types.add(classDef.getType());
+		assertEquals(entryClassCount, types.size());
+		assertEquals(CLASS_COUNT, new HashSet<>(types).size());
+		//noinspection ConstantConditions
+		ClassDef duplicate = container.getEntry(NAMER.getName(1)).getDexFile().getClasses().iterator().next();
+		assertTrue(dexFile.getClasses().contains(duplicate));
+	}
+
+	private static void checkIndex(DirectoryDexContainer container, DexTypeIndex<DexBackedDexFile> index)
+			throws IOException {
+		assertEquals(CLASS_COUNT, index.size());
+		Set<String> types = new HashSet<>();
+		for (String name : container.getDexEntryNames()) {
+			//noinspection ConstantConditions
+			for (ClassDef classDef : container.getEntry(name).getDexFile().getClasses()) {
+				String type = classDef.getType();
+				types.add(type);
+				assertTrue(type, index.contains(type));
+				assertEquals(type, name, index.getEntryName(type));
+				assertEquals(type, index.getClassDef(type).getType());
+			}
+		}
+		assertEquals(types, index.getTypes());
+	}
+
+	// Writes two dex files that define some of the same types.
+	private File writeOverlappingDexFiles() throws IOException {
+		File directory = folder.newFolder("in");
+		List<ClassDef> first = new ArrayList<>();
+		List<ClassDef> second = new ArrayList<>();
+		for (int i = 0; i < CLASS_COUNT; i++) {
+			ClassDef classDef = TestDexFiles.createClassDef(i, CLASS_COUNT, "");
+			if (i < CLASS_COUNT * 6 / 10) first.add(classDef);
+			if (i >= CLASS_COUNT / 2) second.add(classDef);
+		}
+		RawDexIO.writeRawDexFile(new File(directory, NAMER.getName(0)), new ImmutableDexFile(OPCODES, first),
+				DexIO.DEFAULT_MAX_DEX_POOL_SIZE);
+		RawDexIO.writeRawDexFile(new File(directory, NAMER.getName(1)), new ImmutableDexFile(OPCODES, second),
+				DexIO.DEFAULT_MAX_DEX_POOL_SIZE);
+		return directory;
+	}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.writer.io.DexDataStore;
+import org.jf.dexlib2.writer.io.MemoryDataStore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DexWriteStageTest {
+
+	private static final long TIMEOUT = 60000;
+
+	@Test(timeout = TIMEOUT)
+	public void abandonsQueuedJobsAfterFailure() throws IOException {
+		DexWriteStage stage = new DexWriteStage(1, 4, null);
+		List<CountingJob> jobs = new ArrayList<>();
+		try {
+			for (int i = 0; i < 20; i++) {
+				CountingJob job = new CountingJob(i == 0);
+				jobs.add(job);
+				stage.submit(job);
+			}
+		} catch (IOException e) {
+			// Submissions that see the failure abandon their job.
+			assertEquals("boom", e.getMessage());
+		}
+		try {
+			stage.finish();
+			fail("Expected the failure of the first job");
+		} catch (IOException e) {
+			assertEquals("boom", e.getMessage());
+		}
+		for (CountingJob job : jobs) assertEquals(1, job.calls.get() + job.abandons.get());
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void failedWriteWithHeapBudgetDoesNotHang() {
+		// A heap budget of about two pools keeps the interning threads waiting for the pools of the write stage.
+		for (ClassPartitioner partitioner : new ClassPartitioner[] { new SequentialClassPartitioner(),
+				new SequentialClassPartitioner(true) }) {
+			DexWriteOptions options = DexWriteOptions.builder().setThreadCount(4).setPartitioner(partitioner)
+					.setMaxDexPoolSize(2000).setHeapBudget(2 << 20).setWriteQueueDepth(4).build();
+			try {
+				MultiDexIO.writeMultiDex(true, new FailingDexDataStoreFactory(2), new BasicDexFileNamer(),
+						TestDexFiles.createDexFile(3000), options);
+				fail("Expected the failure of the data store");
+			} catch (IOException e) {
+				assertTrue(e.getMessage().startsWith("boom"));
+			}
+		}
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void failedWriteWithoutHeapBudgetIsRethrown() {
+		DexWriteOptions options = DexWriteOptions.builder().setThreadCount(4).setMaxDexPoolSize(2000)
+				.setWriteQueueDepth(1).build();
+		try {
+			MultiDexIO.writeMultiDex(true, new FailingDexDataStoreFactory(3), new BasicDexFileNamer(),
+					TestDexFiles.createDexFile(3000), options);
+			fail("Expected the failure of the data store");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("boom"));
+		}
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void writeStageDoesNotChangeOutput() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(3000);
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		MemoryDexDataStoreFactory expected = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, expected, namer, dexFile,
+				DexWriteOptions.builder().setMaxDexPoolSize(2000).build());
+		MemoryDexDataStoreFactory actual = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, actual, namer, dexFile,
+				DexWriteOptions.builder().setMaxDexPoolSize(2000).setWriteQueueDepth(2).build());
+		assertTrue(expected.getDataStores().size() > 1);
+		TestDexFiles.assertSameFiles(TestDexFiles.getData(expected), TestDexFiles.getData(actual));
+	}
+
+	@Test(timeout = TIMEOUT)
+	public void writeCompletesOnSaturatedExecutor() throws Exception {
+		DexFile dexFile = TestDexFiles.createDexFile(3000);
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		MemoryDexDataStoreFactory expected = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, expected, namer, dexFile,
+				DexWriteOptions.builder().setPartitioner(new SequentialClassPartitioner(true))
+						.setMaxDexPoolSize(2000).build());
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		final CountDownLatch latch = new CountDownLatch(1);
+		try {
+			// Keep the only executor thread busy for the whole write.
+			//noinspection Convert2Lambda
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						latch.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			MemoryDexDataStoreFactory actual = new MemoryDexDataStoreFactory(namer);
+			MultiDexIO.writeMultiDex(true, actual, namer, dexFile, DexWriteOptions.builder().setThreadCount(4)
+					.setPartitioner(new SequentialClassPartitioner(true)).setMaxDexPoolSize(2000)
+					.setHeapBudget(2 << 20).setWriteQueueDepth(2).setExecutor(executor).build());
+			TestDexFiles.assertSameFiles(TestDexFiles.getData(expected), TestDexFiles.getData(actual));
+		} finally {
+			latch.countDown();
+			executor.shutdown();
+		}
+	}
+
+	private static class CountingJob implements DexWriteStage.Job {
+
+		private final boolean failing;
+		private final AtomicInteger calls = new AtomicInteger();
+		private final AtomicInteger abandons = new AtomicInteger();
+
+		public CountingJob(boolean failing) {
+			this.failing = failing;
+		}
+
+		@Override
+		public Void call() throws IOException {
+			calls.incrementAndGet();
+			if (failing) throw new IOException("boom");
+			return null;
+		}
+
+		@Override
+		public void abandon() {
+			abandons.incrementAndGet();
+		}
+
+	}
+
+	// Fails to create the data store of the dex file with the given one-based ordinal.
+	private static class FailingDexDataStoreFactory implements DexDataStoreFactory {
+
+		private final int failingOrdinal;
+		private int count;
+
+		public FailingDexDataStoreFactory(int failingOrdinal) {
+			this.failingOrdinal = failingOrdinal;
+		}
+
+		@Override
+		public synchronized DexDataStore getDataStore(String entryName) throws IOException {
+			if (++count == failingOrdinal) throw new IOException("boom: " + entryName);
+			return new MemoryDataStore();
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.common.io.Files;
+import org.jf.dexlib2.iface.DexFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectoryStagingTest {
+
+	private static final byte[] USER_DATA = { 1, 2, 3 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void commitReplacesDexFilesAndKeepsUserFiles() throws IOException {
+		File directory = createOutputDirectory();
+		DexFile dexFile = TestDexFiles.createDexFile(3000);
+		DexWriteOptions options = DexWriteOptions.builder().setMaxDexPoolSize(2000).build();
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		int dexFileCount = MultiDexIO.writeMultiDexDirectoryStaged(true, directory, namer, dexFile, options);
+		File expected = folder.newFolder("expected");
+		MultiDexIO.writeMultiDexDirectory(true, expected, namer, dexFile, options);
+		Map<String, byte[]> files = TestDexFiles.readFiles(directory);
+		assertArrayEquals(USER_DATA, files.remove("notes.txt"));
+		TestDexFiles.assertSameFiles(TestDexFiles.readFiles(expected), files);
+		assertEquals(dexFileCount, files.size());
+		assertUserSubdirectory(directory);
+		// No staging or backup directory is left behind.
+		assertEquals(new TreeSet<>(Arrays.asList("expected", "out")),
+				new TreeSet<>(Arrays.asList(folder.getRoot().list())));
+	}
+
+	@Test
+	public void failedCommitGivesBackUserFiles() throws IOException {
+		File directory = createOutputDirectory();
+		File stagingDirectory = DirectoryStaging.create(directory);
+		Files.write(new byte[] { 4 }, new File(stagingDirectory, "classes.dex"));
+		// An existing backup directory makes the swap fail after the user files were carried.
+		File backupDirectory = new File(stagingDirectory.getPath() + ".old");
+		assertTrue(new File(backupDirectory, "blocker").mkdirs());
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		try {
+			DirectoryStaging.commit(stagingDirectory, directory, namer);
+			fail("Expected the failure of the swap");
+		} catch (IOException e) {
+			// Expected.
+		}
+		DirectoryStaging.discard(stagingDirectory, namer);
+		assertFalse(stagingDirectory.exists());
+		Map<String, byte[]> files = TestDexFiles.readFiles(directory);
+		assertArrayEquals(USER_DATA, files.get("notes.txt"));
+		assertArrayEquals(new byte[] { 0 }, files.get("classes.dex"));
+		assertUserSubdirectory(directory);
+	}
+
+	@Test
+	public void discardKeepsEntriesItDidNotWrite() throws IOException {
+		File stagingDirectory = createOutputDirectory();
+		DirectoryStaging.discard(stagingDirectory, new BasicDexFileNamer());
+		assertEquals(Collections.singleton("notes.txt"), TestDexFiles.readFiles(stagingDirectory).keySet());
+		assertUserSubdirectory(stagingDirectory);
+	}
+
+	// An output directory with stale dex files, a manifest and entries of the user.
+	private File createOutputDirectory() throws IOException {
+		File directory = folder.newFolder("out");
+		Files.write(new byte[] { 0 }, new File(directory, "classes.dex"));
+		Files.write(new byte[] { 0 }, new File(directory, "classes99.dex"));
+		Files.write(new byte[] { 0 }, new File(directory, DexManifest.FILE_NAME));
+		Files.write(USER_DATA, new File(directory, "notes.txt"));
+		File subdirectory = new File(directory, "sub");
+		assertTrue(subdirectory.mkdir());
+		Files.write(USER_DATA, new File(subdirectory, "data.bin"));
+		return directory;
+	}
+
+	private static void assertUserSubdirectory(File directory) throws IOException {
+		assertArrayEquals(USER_DATA, Files.toByteArray(new File(new File(directory, "sub"), "data.bin")));
+	}
+
+}
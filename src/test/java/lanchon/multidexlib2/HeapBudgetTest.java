@@ -0,0 +1,47 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeapBudgetTest {
+
+	private static final int MAX_DEX_POOL_SIZE = 1000;
+	// The initial estimate of a full pool: 3 items per maximum pool size, 128 bytes per item, 1 KiB per permit.
+	private static final int FULL_POOL_PERMITS = 375;
+
+	@Test
+	public void smallPoolsDoNotLowerReservation() {
+		HeapBudget budget = new HeapBudget(1L << 30, MAX_DEX_POOL_SIZE);
+		assertEquals(FULL_POOL_PERMITS, budget.getReservationPermits());
+		// A small pool that did not overflow, such as a minimal main dex, is measured first.
+		budget.record(new int[] { 8, 8 }, 1024, false);
+		assertEquals(FULL_POOL_PERMITS, budget.getReservationPermits());
+		// The first full pool replaces the initial estimate.
+		budget.record(new int[] { 400, 400 }, 20 * 1024, true);
+		assertEquals(120, budget.getReservationPermits());
+		// Later pools only raise the reservation, whether full or not.
+		budget.record(new int[] { 8, 8 }, 1024, false);
+		budget.record(new int[] { 300, 300 }, 10 * 1024, true);
+		assertEquals(120, budget.getReservationPermits());
+		budget.record(new int[] { 500, 500 }, 20 * 1024, false);
+		assertEquals(145, budget.getReservationPermits());
+	}
+
+	@Test
+	public void reservationIsCappedByBudget() {
+		HeapBudget budget = new HeapBudget(100 * 1024, MAX_DEX_POOL_SIZE);
+		assertEquals(100, budget.getReservationPermits());
+	}
+
+}
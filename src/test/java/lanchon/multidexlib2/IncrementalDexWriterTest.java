@@ -0,0 +1,114 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class IncrementalDexWriterTest {
+
+	private static final int CLASS_COUNT = 3000;
+	private static final int MAX_DEX_POOL_SIZE = 2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void manifestRecordsClassesOfEachDexFile() throws IOException {
+		File directory = folder.newFolder();
+		DexFile dexFile = TestDexFiles.createDexFile(CLASS_COUNT);
+		int dexFileCount = write(directory, dexFile, 4);
+		assertTrue(dexFileCount > 1);
+		assertManifestMatches(directory, dexFile, dexFileCount);
+	}
+
+	@Test
+	public void changedClassOnlyRewritesItsDexFile() throws IOException {
+		File directory = folder.newFolder();
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		List<ClassDef> classes = new ArrayList<>(TestDexFiles.createDexFile(CLASS_COUNT).getClasses());
+		DexFile dexFile = new ImmutableDexFile(Opcodes.forApi(TestDexFiles.API_LEVEL), classes);
+		write(directory, dexFile, 1);
+		Map<String, byte[]> oldFiles = TestDexFiles.readFiles(directory);
+		String changedName = findDexFile(DexManifest.read(directory), TestDexFiles.getType(0));
+		classes.set(0, TestDexFiles.createClassDef(0, CLASS_COUNT, "changed"));
+		dexFile = new ImmutableDexFile(dexFile.getOpcodes(), classes);
+		int dexFileCount = write(directory, dexFile, 4);
+		assertManifestMatches(directory, dexFile, dexFileCount);
+		// The other dex files are kept, and the classes of the changed one are written to its freed name first.
+		Map<String, byte[]> newFiles = TestDexFiles.readFiles(directory);
+		for (String name : oldFiles.keySet()) {
+			if (namer.isValidName(name) && !name.equals(changedName)) {
+				assertArrayEquals(name, oldFiles.get(name), newFiles.get(name));
+			}
+		}
+	}
+
+	private static int write(File directory, DexFile dexFile, int threadCount) throws IOException {
+		return MultiDexIO.writeMultiDexDirectoryIncremental(true, directory, new BasicDexFileNamer(), dexFile,
+				DexWriteOptions.builder().setThreadCount(threadCount).setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build());
+	}
+
+	private static String findDexFile(DexManifest manifest, String type) {
+		assertNotNull(manifest);
+		for (Map.Entry<String, DexManifest.Entry> entry : manifest.getEntries().entrySet()) {
+			if (entry.getValue().classHashes.containsKey(type)) return entry.getKey();
+		}
+		throw new AssertionError("Type not found: " + type);
+	}
+
+	// Checks the manifest against the classes actually read from each dex file.
+	private static void assertManifestMatches(File directory, DexFile dexFile, int dexFileCount) throws IOException {
+		DexManifest manifest = DexManifest.read(directory);
+		assertNotNull(manifest);
+		assertEquals(dexFileCount, manifest.getEntries().size());
+		Map<String, String> hashes = new HashMap<>();
+		for (ClassDef classDef : dexFile.getClasses()) hashes.put(classDef.getType(), ClassHasher.hash(classDef));
+		Set<String> types = new HashSet<>();
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		for (int i = 0; i < dexFileCount; i++) {
+			String name = namer.getName(i);
+			File file = new File(directory, name);
+			DexManifest.Entry entry = manifest.getEntries().get(name);
+			assertNotNull(name, entry);
+			assertTrue(name, entry.matches(file));
+			Set<String> fileTypes = new HashSet<>();
+			for (ClassDef classDef : RawDexIO.readRawDexFile(file, dexFile.getOpcodes()).getClasses()) {
+				String type = classDef.getType();
+				fileTypes.add(type);
+				assertEquals(type, hashes.get(type), entry.classHashes.get(type));
+			}
+			assertEquals(name, fileTypes, entry.classHashes.keySet());
+			types.addAll(fileTypes);
+		}
+		assertEquals(hashes.keySet(), types);
+	}
+
+}
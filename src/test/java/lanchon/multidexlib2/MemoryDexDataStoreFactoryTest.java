@@ -0,0 +1,115 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.io.ByteStreams;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.writer.io.DexDataStore;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MemoryDexDataStoreFactoryTest {
+
+	private static final BasicDexFileNamer NAMER = new BasicDexFileNamer();
+
+	@Test
+	public void dataStoresAreOrderedByIndex() throws IOException {
+		MemoryDexDataStoreFactory factory = new MemoryDexDataStoreFactory(NAMER);
+		for (int i = 11; i >= 0; i--) write(factory.getDataStore(NAMER.getName(i)), 0, new byte[] { (byte) i });
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 12; i++) expected.add(NAMER.getName(i));
+		Map<String, PooledMemoryDataStore> dataStores = factory.getDataStores();
+		assertEquals(expected, new ArrayList<>(dataStores.keySet()));
+		for (int i = 0; i < 12; i++) {
+			assertArrayEquals(new byte[] { (byte) i }, dataStores.get(NAMER.getName(i)).getData());
+		}
+	}
+
+	@Test
+	public void duplicateNameIsRejected() {
+		MemoryDexDataStoreFactory factory = new MemoryDexDataStoreFactory(NAMER);
+		factory.getDataStore(NAMER.getName(0));
+		try {
+			factory.getDataStore(NAMER.getName(0));
+			fail("Expected the duplicate name");
+		} catch (DuplicateEntryNameException e) {
+			// Expected.
+		}
+		assertEquals(1, factory.getDataStores().size());
+	}
+
+	@Test
+	public void writesAndReadsAtOffsets() throws IOException {
+		MemoryDexDataStoreFactory factory = new MemoryDexDataStoreFactory(NAMER, new DexBufferPool(4, 4));
+		DexDataStore dataStore = factory.getDataStore(NAMER.getName(0));
+		write(dataStore, 6, new byte[] { 6, 7 });
+		write(dataStore, 1, new byte[] { 1, 2 });
+		// The gap left before a write past the end is zeroed, and buffers grow as needed.
+		byte[] expected = { 0, 1, 2, 0, 0, 0, 6, 7 };
+		assertArrayEquals(expected, factory.getDataStores().get(NAMER.getName(0)).getData());
+		try (InputStream inputStream = dataStore.readAt(5)) {
+			//noinspection UnstableApiUsage
+			assertArrayEquals(Arrays.copyOfRange(expected, 5, 8), ByteStreams.toByteArray(inputStream));
+		}
+	}
+
+	@Test
+	public void releasedBuffersAreReused() throws IOException {
+		DexBufferPool bufferPool = new DexBufferPool(4, 1024);
+		MemoryDexDataStoreFactory factory = new MemoryDexDataStoreFactory(NAMER, bufferPool);
+		write(factory.getDataStore(NAMER.getName(0)), 0, new byte[100]);
+		byte[] buffer = factory.getDataStores().get(NAMER.getName(0)).getBuffer();
+		factory.release();
+		assertTrue(factory.getDataStores().isEmpty());
+		// Reused buffers are not clean, but the data store only exposes what was written to it.
+		MemoryDexDataStoreFactory reusingFactory = new MemoryDexDataStoreFactory(NAMER, bufferPool);
+		write(reusingFactory.getDataStore(NAMER.getName(0)), 0, new byte[] { 1 });
+		PooledMemoryDataStore dataStore = reusingFactory.getDataStores().get(NAMER.getName(0));
+		assertSame(buffer, dataStore.getBuffer());
+		assertArrayEquals(new byte[] { 1 }, dataStore.getData());
+	}
+
+	@Test
+	public void rewriteIntoReleasedBuffersIsIdentical() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(1000);
+		DexWriteOptions options = DexWriteOptions.builder().setMaxDexPoolSize(1000).build();
+		MemoryDexDataStoreFactory first = new MemoryDexDataStoreFactory(NAMER);
+		int dexFileCount = MultiDexIO.writeMultiDex(true, first, NAMER, dexFile, options);
+		assertTrue(dexFileCount > 1);
+		assertEquals(dexFileCount, first.getDataStores().size());
+		Map<String, byte[]> expected = TestDexFiles.getData(first);
+		first.release();
+		// A second write into released buffers produces the same dex files.
+		MemoryDexDataStoreFactory second = new MemoryDexDataStoreFactory(NAMER, first.getBufferPool());
+		MultiDexIO.writeMultiDex(true, second, NAMER, dexFile, options);
+		TestDexFiles.assertSameFiles(expected, TestDexFiles.getData(second));
+	}
+
+	private static void write(DexDataStore dataStore, int offset, byte[] data) throws IOException {
+		try (OutputStream outputStream = dataStore.outputAt(offset)) {
+			outputStream.write(data);
+		}
+	}
+
+}
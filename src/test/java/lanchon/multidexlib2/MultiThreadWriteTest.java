@@ -0,0 +1,65 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.jf.dexlib2.iface.DexFile;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MultiThreadWriteTest {
+
+	private static final int MAX_DEX_POOL_SIZE = 2000;
+
+	// Multi-threaded writes are deterministic when they plan their dex files. The expected output comes from the
+	// greedy fill of the default partitioner in a single-threaded write.
+	private static final ClassPartitioner PLANNED = new SequentialClassPartitioner(true);
+
+	@Test
+	public void plannedOutputMatchesSingleThreadedOutput() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(3000);
+		Map<String, byte[]> expected = write(dexFile, null, 1, 0, false);
+		assertTrue(expected.size() > 1);
+		for (int i = 0; i < 3; i++) TestDexFiles.assertSameFiles(expected, write(dexFile, PLANNED, 4, 0, false));
+	}
+
+	@Test
+	public void plannedOutputWithMainDexConstraintsMatchesSingleThreadedOutput() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(3000);
+		for (boolean minimalMainDex : new boolean[] { false, true }) {
+			Map<String, byte[]> expected = write(dexFile, null, 1, 100, minimalMainDex);
+			TestDexFiles.assertSameFiles(expected, write(dexFile, PLANNED, 4, 100, minimalMainDex));
+		}
+	}
+
+	@Test
+	public void plannedOutputOfSingleDexMatchesSingleThreadedOutput() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(50);
+		Map<String, byte[]> expected = write(dexFile, null, 1, 0, false);
+		assertEquals(1, expected.size());
+		TestDexFiles.assertSameFiles(expected, write(dexFile, PLANNED, 4, 0, false));
+	}
+
+	private static Map<String, byte[]> write(DexFile dexFile, ClassPartitioner partitioner, int threadCount,
+			int minMainDexClassCount, boolean minimalMainDex) throws IOException {
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		MemoryDexDataStoreFactory dataStoreFactory = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, dataStoreFactory, namer, dexFile, DexWriteOptions.builder()
+				.setThreadCount(threadCount).setPartitioner(partitioner).setMinMainDexClassCount(minMainDexClassCount)
+				.setMinimalMainDex(minimalMainDex).setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build());
+		return TestDexFiles.getData(dataStoreFactory);
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.dexbacked.raw.HeaderItem;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingDexWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void streamedCopiesOfLazyEntriesAreWrittenUnchanged() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(3000);
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		DexWriteOptions options = DexWriteOptions.builder().setMaxDexPoolSize(2000).build();
+		File input = folder.newFolder("in");
+		MultiDexIO.writeMultiDexDirectory(true, input, namer, dexFile, options);
+		Opcodes opcodes = Opcodes.forApi(TestDexFiles.API_LEVEL);
+		MultiDexContainer<DexBackedDexFile> source = MultiDexIO.readMultiDexContainer(input, namer,
+				DexReadOptions.builder().setOpcodes(opcodes).setLazy(true).build());
+		assertTrue(source.getDexEntryNames().size() > 1);
+		// Classes of each entry are copied before the entry is unloaded, while their dex pool is still in progress.
+		MemoryDexDataStoreFactory actual = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.transformMultiDex(source, null, actual, namer, opcodes, 10, options);
+		MemoryDexDataStoreFactory expected = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, expected, namer, dexFile, options);
+		TestDexFiles.assertSameFiles(TestDexFiles.getData(expected), TestDexFiles.getData(actual));
+	}
+
+	@Test
+	public void outputUsesNewestOpcodesOfMixedEntries() throws IOException {
+		// The first entry targets an older api level than the second one.
+		List<ClassDef> classes = new ArrayList<>(TestDexFiles.createDexFile(200).getClasses());
+		File input = folder.newFolder("in");
+		RawDexIO.writeRawDexFile(new File(input, "classes.dex"),
+				new ImmutableDexFile(Opcodes.forApi(21), classes.subList(0, 100)), 0xffff);
+		RawDexIO.writeRawDexFile(new File(input, "classes2.dex"),
+				new ImmutableDexFile(Opcodes.forApi(26), classes.subList(100, 200)), 0xffff);
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		DexWriteOptions options = DexWriteOptions.builder().setMaxDexPoolSize(2000).build();
+		// Files take the opcodes from the dex headers.
+		File output = folder.newFolder("out");
+		MultiDexIO.transformDexFile(input, namer, null, null, output, namer, 10, options);
+		for (DexHeaderInfo header : MultiDexIO.probeMultiDexContainer(true, output, namer)) {
+			assertEquals(38, header.getVersion());
+		}
+		// Containers take the opcodes from their entries.
+		MultiDexContainer<DexBackedDexFile> source = MultiDexIO.readMultiDexContainer(input, namer,
+				DexReadOptions.builder().setLazy(true).build());
+		MemoryDexDataStoreFactory actual = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.transformMultiDex(source, null, actual, namer, null, 10, options);
+		for (byte[] data : TestDexFiles.getData(actual).values()) assertEquals(38, HeaderItem.getVersion(data, 0));
+	}
+
+}
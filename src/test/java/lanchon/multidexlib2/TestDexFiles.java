@@ -0,0 +1,142 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.io.Files;
+import org.jf.dexlib2.AccessFlags;
+import org.jf.dexlib2.Opcode;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.iface.MultiDexContainer;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableField;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.jf.dexlib2.immutable.ImmutableMethodImplementation;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction21c;
+import org.jf.dexlib2.immutable.instruction.ImmutableInstruction35c;
+import org.jf.dexlib2.immutable.reference.ImmutableFieldReference;
+import org.jf.dexlib2.immutable.reference.ImmutableMethodReference;
+import org.jf.dexlib2.immutable.reference.ImmutableStringReference;
+import org.jf.dexlib2.immutable.reference.ImmutableTypeReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+// Synthetic test inputs. Every method references strings, methods, fields and types of other classes, so that
+// small maximum pool sizes split the classes into many dex files.
+
+class TestDexFiles {
+
+	public static final int API_LEVEL = 21;
+
+	private static final int METHODS_PER_CLASS = 4;
+	private static final int PACKAGE_COUNT = 8;
+	private static final int EXTERNAL_TYPE_COUNT = 500;
+
+	public static DexFile createDexFile(int classCount) {
+		return createDexFile(classCount, "");
+	}
+
+	// The variant is added to the strings of the classes, so that different variants have different content.
+	public static DexFile createDexFile(int classCount, String variant) {
+		List<ClassDef> classes = new ArrayList<>(classCount);
+		for (int c = 0; c < classCount; c++) classes.add(createClassDef(c, classCount, variant));
+		return new ImmutableDexFile(Opcodes.forApi(API_LEVEL), classes);
+	}
+
+	public static ClassDef createClassDef(int index, int classCount, String variant) {
+		int flags = AccessFlags.PUBLIC.getValue() | AccessFlags.STATIC.getValue();
+		String type = getType(index);
+		List<ImmutableMethod> methods = new ArrayList<>(METHODS_PER_CLASS);
+		for (int m = 0; m < METHODS_PER_CLASS; m++) {
+			List<ImmutableInstruction> instructions = new ArrayList<>();
+			instructions.add(new ImmutableInstruction21c(Opcode.CONST_STRING, 0,
+					new ImmutableStringReference("string_" + index + "_" + m + variant)));
+			instructions.add(new ImmutableInstruction35c(Opcode.INVOKE_STATIC, 0, 0, 0, 0, 0, 0,
+					new ImmutableMethodReference(getType((index * 7 + m) % classCount), "m" + m, null, "V")));
+			instructions.add(new ImmutableInstruction21c(Opcode.SGET_OBJECT, 0,
+					new ImmutableFieldReference(getType((index * 13 + m) % classCount), "f", "Ljava/lang/String;")));
+			instructions.add(new ImmutableInstruction21c(Opcode.NEW_INSTANCE, 0,
+					new ImmutableTypeReference("Lexternal/T" + ((index + m) % EXTERNAL_TYPE_COUNT) + ";")));
+			instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+			ImmutableMethodImplementation implementation = new ImmutableMethodImplementation(1, instructions,
+					null, null);
+			methods.add(new ImmutableMethod(type, "m" + m, null, "V", flags, null, implementation));
+		}
+		List<ImmutableField> fields = Collections.singletonList(
+				new ImmutableField(type, "f", "Ljava/lang/String;", flags, null, null));
+		return new ImmutableClassDef(type, AccessFlags.PUBLIC.getValue(), "Ljava/lang/Object;", null, null, null,
+				fields, methods);
+	}
+
+	public static String getType(int index) {
+		return "Ltest/p" + (index % PACKAGE_COUNT) + "/C" + index + ";";
+	}
+
+	// Returns the content of the files of a directory by name.
+	public static Map<String, byte[]> readFiles(File directory) throws IOException {
+		Map<String, byte[]> files = new TreeMap<>();
+		File[] list = directory.listFiles();
+		if (list == null) throw new IOException("Cannot list directory: " + directory);
+		for (File file : list) {
+			//noinspection UnstableApiUsage
+			if (file.isFile()) files.put(file.getName(), Files.toByteArray(file));
+		}
+		return files;
+	}
+
+	// Returns the content of the dex files of a memory data store factory by name, in name order.
+	public static Map<String, byte[]> getData(MemoryDexDataStoreFactory dataStoreFactory) {
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		for (Map.Entry<String, PooledMemoryDataStore> entry : dataStoreFactory.getDataStores().entrySet()) {
+			files.put(entry.getKey(), entry.getValue().getData());
+		}
+		return files;
+	}
+
+	// Returns the content of the dex files of a container by name, in entry order.
+	public static Map<String, byte[]> getData(MultiDexContainer<? extends DexBackedDexFile> container)
+			throws IOException {
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		for (String name : container.getDexEntryNames()) {
+			MultiDexContainer.DexEntry<? extends DexBackedDexFile> entry = container.getEntry(name);
+			assertNotNull(name, entry);
+			//noinspection ConstantConditions
+			files.put(name, entry.getDexFile().getBuffer().getBuf());
+		}
+		return files;
+	}
+
+	public static void assertSameFiles(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+		for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+
+	private TestDexFiles() {}
+
+}
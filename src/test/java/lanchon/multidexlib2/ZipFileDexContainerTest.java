@@ -0,0 +1,144 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.dexbacked.DexBackedDexFile;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ZipFileDexContainerTest {
+
+	private static final int CLASS_COUNT = 1000;
+	private static final int MAX_DEX_POOL_SIZE = 1000;
+
+	private static final BasicDexFileNamer NAMER = new BasicDexFileNamer();
+	private static final Opcodes OPCODES = Opcodes.forApi(TestDexFiles.API_LEVEL);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storedEntriesAreRead() throws IOException {
+		checkRead(false, ZipEntry.STORED);
+	}
+
+	@Test
+	public void deflatedEntriesAreRead() throws IOException {
+		checkRead(true, ZipEntry.DEFLATED);
+	}
+
+	@Test
+	public void lazyEntriesAreLoadedOnce() throws IOException {
+		File zip = new File(folder.getRoot(), "in.zip");
+		MultiDexIO.writeMultiDexZipFile(true, zip, NAMER, true, TestDexFiles.createDexFile(CLASS_COUNT),
+				getOptions());
+		ZipFileDexContainer container = new ZipFileDexContainer(zip, NAMER, OPCODES, true);
+		assertTrue(container.getDexEntryNames().size() > 1);
+		for (String name : container.getDexEntryNames()) {
+			LazyDexEntry<?, ?> entry = getEntry(container, name);
+			assertFalse(entry.isLoaded());
+			assertEquals(-1, entry.getLoadNanos());
+		}
+		String firstName = container.getDexEntryNames().get(0);
+		LazyDexEntry<?, ?> firstEntry = getEntry(container, firstName);
+		DexFile dexFile = firstEntry.getDexFile();
+		assertTrue(firstEntry.isLoaded());
+		assertTrue(firstEntry.getLoadNanos() >= 0);
+		assertSame(dexFile, firstEntry.getDexFile());
+		assertSame(dexFile, firstEntry.load());
+		// Accessing an entry does not load the others.
+		for (String name : container.getDexEntryNames()) {
+			if (!name.equals(firstName)) assertFalse(name, getEntry(container, name).isLoaded());
+		}
+		// Iterating the classes of a merged view loads each remaining entry once, in entry order.
+		MultiDexContainerBackedDexFile<DexBackedDexFile> merged = new MultiDexContainerBackedDexFile<>(container,
+				MultiDexContainerBackedDexFile.DuplicateTypeCheck.NONE, 1);
+		assertEquals(CLASS_COUNT, countClasses(merged));
+		Map<String, DexFile> dexFiles = new HashMap<>();
+		for (String name : container.getDexEntryNames()) {
+			LazyDexEntry<?, ?> entry = getEntry(container, name);
+			assertTrue(name, entry.isLoaded());
+			dexFiles.put(name, entry.getDexFile());
+		}
+		assertSame(dexFile, dexFiles.get(firstName));
+		// Later accesses reuse the loaded dex files.
+		assertEquals(CLASS_COUNT, countClasses(merged));
+		for (String name : container.getDexEntryNames()) {
+			assertSame(dexFiles.get(name), getEntry(container, name).getDexFile());
+		}
+	}
+
+	private void checkRead(boolean compressed, int method) throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(CLASS_COUNT);
+		File zip = new File(folder.getRoot(), "in.zip");
+		MultiDexIO.writeMultiDexZipFile(true, zip, NAMER, compressed, dexFile, getOptions());
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				assertEquals(entry.getName(), method, entry.getMethod());
+			}
+		}
+		MemoryDexDataStoreFactory dataStoreFactory = new MemoryDexDataStoreFactory(NAMER);
+		MultiDexIO.writeMultiDex(true, dataStoreFactory, NAMER, dexFile, getOptions());
+		Map<String, byte[]> expected = TestDexFiles.getData(dataStoreFactory);
+		assertTrue(expected.size() > 1);
+		TestDexFiles.assertSameFiles(expected, TestDexFiles.getData(new ZipFileDexContainer(zip, NAMER, OPCODES)));
+		TestDexFiles.assertSameFiles(expected,
+				TestDexFiles.getData(new ZipFileDexContainer(zip, NAMER, OPCODES, 4)));
+		TestDexFiles.assertSameFiles(expected,
+				TestDexFiles.getData(new ZipFileDexContainer(zip, NAMER, OPCODES, true)));
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			TestDexFiles.assertSameFiles(expected,
+					TestDexFiles.getData(new ZipFileDexContainer(zipFile, NAMER, OPCODES, true)));
+		}
+		// The headers are probed without parsing the dex files.
+		int index = 0;
+		for (DexHeaderInfo header : MultiDexIO.probeMultiDexContainer(true, zip, NAMER)) {
+			assertEquals(NAMER.getName(index), header.getEntryName());
+			assertEquals(expected.get(header.getEntryName()).length, header.getFileSize());
+			index++;
+		}
+		assertEquals(expected.size(), index);
+	}
+
+	private static int countClasses(DexFile dexFile) {
+		int count = 0;
+		for (ClassDef ignored : dexFile.getClasses()) count++;
+		return count;
+	}
+
+	private static LazyDexEntry<?, ?> getEntry(ZipFileDexContainer container, String name) {
+		return (LazyDexEntry<?, ?>) container.getEntry(name);
+	}
+
+	private static DexWriteOptions getOptions() {
+		return DexWriteOptions.builder().setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build();
+	}
+
+}
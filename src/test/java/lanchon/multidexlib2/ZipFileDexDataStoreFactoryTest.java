@@ -0,0 +1,217 @@
+/*
+ * multidexlib2 - Copyright 2015-2020 Rodrigo Balerdi
+ * (GNU General Public License version 3 or later)
+ *
+ * multidexlib2 is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ */
+
+package lanchon.multidexlib2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.jf.dexlib2.Opcodes;
+import org.jf.dexlib2.iface.ClassDef;
+import org.jf.dexlib2.iface.DexFile;
+import org.jf.dexlib2.immutable.ImmutableClassDef;
+import org.jf.dexlib2.immutable.ImmutableDexFile;
+import org.jf.dexlib2.immutable.ImmutableMethod;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZipFileDexDataStoreFactoryTest {
+
+	private static final int CLASS_COUNT = 3000;
+	private static final int MAX_DEX_POOL_SIZE = 2000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void storedEntriesAreOrderedAndAligned() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(CLASS_COUNT);
+		File zip = new File(folder.getRoot(), "out.zip");
+		MultiDexIO.writeMultiDexZipFile(true, zip, new BasicDexFileNamer(), false, dexFile, getOptions(4));
+		Map<String, byte[]> expected = writeToMemory(dexFile);
+		assertTrue(expected.size() > 1);
+		TestDexFiles.assertSameFiles(expected, readZipFile(zip));
+		byte[] data = Files.toByteArray(zip);
+		int offset = 0;
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(0x04034b50, readInt(data, offset));
+			assertEquals(0, readShort(data, offset + 8));                     // stored
+			int dataOffset = offset + 30 + readShort(data, offset + 26) + readShort(data, offset + 28);
+			assertEquals(0, dataOffset % ZipFileDexDataStoreFactory.STORED_DATA_ALIGNMENT);
+			offset = dataOffset + readInt(data, offset + 18);
+		}
+		assertEquals(Arrays.asList("out.zip"), Arrays.asList(folder.getRoot().list()));
+	}
+
+	@Test
+	public void compressedZipIsReadable() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(CLASS_COUNT);
+		File zip = new File(folder.getRoot(), "out.zip");
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		int dexFileCount = MultiDexIO.writeMultiDexZipFile(true, zip, namer, true, dexFile, getOptions(1));
+		TestDexFiles.assertSameFiles(writeToMemory(dexFile), readZipFile(zip));
+		ZipFileDexContainer container = new ZipFileDexContainer(zip, namer, Opcodes.forApi(TestDexFiles.API_LEVEL));
+		assertEquals(dexFileCount, container.getDexEntryNames().size());
+		assertEquals(CLASS_COUNT, new MultiDexContainerBackedDexFile<>(container).getClasses().size());
+	}
+
+	@Test
+	public void failedWriteLeavesExistingFileUntouched() throws IOException {
+		File zip = new File(folder.getRoot(), "out.zip");
+		byte[] original = { 1, 2, 3 };
+		Files.write(original, zip);
+		// Fail after the first dex files were written.
+		List<ClassDef> classes = new ArrayList<>(TestDexFiles.createDexFile(CLASS_COUNT).getClasses());
+		classes.set(CLASS_COUNT - 10, createFailingClassDef(classes.get(CLASS_COUNT - 10)));
+		DexFile dexFile = new ImmutableDexFile(Opcodes.forApi(TestDexFiles.API_LEVEL), classes);
+		try {
+			MultiDexIO.writeMultiDexZipFile(true, zip, new BasicDexFileNamer(), false, dexFile,
+					DexWriteOptions.builder().setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build());
+			fail("Expected the failure of the dex file");
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+		assertArrayEquals(original, Files.toByteArray(zip));
+		assertEquals(Arrays.asList("out.zip"), Arrays.asList(folder.getRoot().list()));
+	}
+
+	@Test
+	public void uncommittedEntryIsNeverAdded() throws IOException {
+		File zip = new File(folder.getRoot(), "out.zip");
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		ZipFileDexDataStoreFactory factory = new ZipFileDexDataStoreFactory(zip, namer, false);
+		CommittableDexDataStore dataStore = (CommittableDexDataStore) factory.getDataStore(namer.getName(0));
+		try (OutputStream outputStream = dataStore.outputAt(0)) {
+			outputStream.write(new byte[100]);
+		}
+		// Written but not committed, as after a failed dex write.
+		dataStore.close();
+		try {
+			factory.close();
+			fail("Expected the failure of the incomplete entry");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Incomplete zip entry"));
+		}
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void discardDeletesTheTemporaryFile() throws IOException {
+		File zip = new File(folder.getRoot(), "out.zip");
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		ZipFileDexDataStoreFactory factory = new ZipFileDexDataStoreFactory(zip, namer, false);
+		CommittableDexDataStore dataStore = (CommittableDexDataStore) factory.getDataStore(namer.getName(0));
+		try (OutputStream outputStream = dataStore.outputAt(0)) {
+			outputStream.write(new byte[100]);
+		}
+		dataStore.commit();
+		assertEquals(1, folder.getRoot().list().length);
+		factory.discard();
+		factory.close();
+		assertFalse(zip.exists());
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void writeDexFileWritesZipForZipExtension() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(CLASS_COUNT);
+		File apk = new File(folder.getRoot(), "out.APK");
+		int dexFileCount = MultiDexIO.writeDexFile(true, apk, new BasicDexFileNamer(), dexFile, getOptions(1));
+		assertTrue(dexFileCount > 1);
+		assertEquals(ContainerFormat.ZIP, ContainerFormat.detect(apk));
+		TestDexFiles.assertSameFiles(writeToMemory(dexFile), readZipFile(apk));
+	}
+
+	@Test
+	public void writeDexFileWritesZipOnlyIfAsked() throws IOException {
+		DexFile dexFile = TestDexFiles.createDexFile(CLASS_COUNT);
+		File file = new File(folder.getRoot(), "out.dex");
+		try {
+			MultiDexIO.writeDexFile(true, file, new BasicDexFileNamer(), dexFile, getOptions(1));
+			fail("Expected the rejection of the multi-dex output");
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+		assertEquals(0, folder.getRoot().list().length);
+		MultiDexIO.writeDexFile(true, file, new BasicDexFileNamer(), dexFile,
+				getOptions(1).toBuilder().setZipOutput(true).build());
+		TestDexFiles.assertSameFiles(writeToMemory(dexFile), readZipFile(file));
+	}
+
+	private static DexWriteOptions getOptions(int threadCount) {
+		// Planned partitioning keeps multi-threaded output identical to single-threaded output.
+		return DexWriteOptions.builder().setThreadCount(threadCount)
+				.setPartitioner(new SequentialClassPartitioner(true)).setMaxDexPoolSize(MAX_DEX_POOL_SIZE).build();
+	}
+
+	private static Map<String, byte[]> writeToMemory(DexFile dexFile) throws IOException {
+		BasicDexFileNamer namer = new BasicDexFileNamer();
+		MemoryDexDataStoreFactory dataStoreFactory = new MemoryDexDataStoreFactory(namer);
+		MultiDexIO.writeMultiDex(true, dataStoreFactory, namer, dexFile, getOptions(1));
+		return TestDexFiles.getData(dataStoreFactory);
+	}
+
+	// Returns the content of the entries of a zip file by name, in central directory order.
+	private static Map<String, byte[]> readZipFile(File zip) throws IOException {
+		Map<String, byte[]> files = new LinkedHashMap<>();
+		try (ZipFile zipFile = new ZipFile(zip)) {
+			Enumeration<? extends ZipEntry> entries = zipFile.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry entry = entries.nextElement();
+				try (InputStream inputStream = zipFile.getInputStream(entry)) {
+					//noinspection UnstableApiUsage
+					files.put(entry.getName(), ByteStreams.toByteArray(inputStream));
+				}
+			}
+		}
+		return files;
+	}
+
+	private static int readShort(byte[] data, int offset) {
+		return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8;
+	}
+
+	private static int readInt(byte[] data, int offset) {
+		return readShort(data, offset) | readShort(data, offset + 2) << 16;
+	}
+
+	// A copy of a class whose methods fail when interned.
+	private static ClassDef createFailingClassDef(ClassDef classDef) {
+		return new ImmutableClassDef(classDef.getType(), classDef.getAccessFlags(), classDef.getSuperclass(),
+				classDef.getInterfaces(), classDef.getSourceFile(), classDef.getAnnotations(), classDef.getFields(),
+				classDef.getMethods()) {
+			@Override
+			public ImmutableSet<? extends ImmutableMethod> getDirectMethods() {
+				throw new IllegalStateException("boom");
+			}
+		};
+	}
+
+}